@@ -0,0 +1,63 @@
+package pl.parser.nbp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Dostęp do przykładowych plików NBP dołączonych do benchmarków (src/jmh/resources/fixtures), dzięki czemu
+ * benchmarki nie potrzebują połączenia z serwisem NBP.
+ *
+ * Nazwy, numery i daty tabel muszą zgadzać się z pozycjami w dołączonych indeksach dir*.txt - inaczej zapytania
+ * w trybie offline z tymi danymi szukają plików, których nie ma. Tabela z 2007 r. (bez indeksu) służy tylko do
+ * porównania parserów.
+ */
+final class BenchmarkFixtures {
+
+    static final String[] INDEX_FILES = {"dir2013.txt", "dir2014.txt", "dir2015.txt"};
+    static final String[] TABLE_FILES = {"c073z070413.xml", "c001z150102.xml", "c256z151231.xml"};
+
+    private static final String FIXTURES = "/fixtures/";
+
+    private BenchmarkFixtures() {
+    }
+
+    static byte[] read(String fileName) throws IOException {
+        InputStream is = BenchmarkFixtures.class.getResourceAsStream(FIXTURES + fileName);
+        if (is == null) {
+            throw new FileNotFoundException("Brak pliku " + fileName + " wśród danych benchmarków");
+        }
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                content.write(buffer, 0, read);
+            }
+            return content.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Kopiuje pliki do katalogu tymczasowego, który może posłużyć jako 'nbp.cache.dir' w trybie offline.
+     */
+    static Path copyToCacheDirectory(String... fileNames) throws IOException {
+        Path directory = Files.createTempDirectory("nbpcc-bench");
+        for (String fileName : fileNames) {
+            Files.write(directory.resolve(fileName), read(fileName));
+        }
+        return directory;
+    }
+
+    static void deleteCacheDirectory(Path directory) throws IOException {
+        for (Path file : Files.newDirectoryStream(directory)) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,74 @@
+package pl.parser.nbp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Macierz kursów krzyżowych ({@link CrossRateMatrix}) 15 x 15 walut dla 1 - 10 lat tabel (250 tabel na rok).
+ * Tabele generowane są deterministycznie (błądzenie losowe kursów), część walut ma przelicznik 100.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrossRateBenchmark {
+
+    private static final String[] KODY_WALUT = {"USD", "EUR", "CHF", "GBP", "JPY", "CZK", "DKK", "NOK", "SEK", "HUF",
+            "CAD", "AUD", "RUB", "XDR", "CNY"};
+    private static final int TABLES_PER_YEAR = 250;
+
+    @Param({"1", "10"})
+    private int years;
+
+    private List<List<Quotation>> tables;
+    private List<String> kodyWalut;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(20150102L);
+        kodyWalut = new ArrayList<String>();
+        long[] kursy = new long[KODY_WALUT.length];
+        for (int i = 0; i < KODY_WALUT.length; i++) {
+            kodyWalut.add(KODY_WALUT[i]);
+            kursy[i] = (1 + random.nextInt(5)) * RateParser.SCALE;
+        }
+        tables = new ArrayList<List<Quotation>>();
+        LocalDate date = LocalDate.of(2005, 1, 3);
+        for (int t = 0; t < years * TABLES_PER_YEAR; t++) {
+            List<Quotation> table = new ArrayList<Quotation>(KODY_WALUT.length);
+            for (int i = 0; i < KODY_WALUT.length; i++) {
+                kursy[i] = Math.max(RateParser.SCALE / 10, kursy[i] + random.nextInt(201) - 100);
+                int przelicznik = KODY_WALUT[i].equals("JPY") || KODY_WALUT[i].equals("HUF") ? 100 : 1;
+                table.add(new Quotation(date, date, KODY_WALUT[i], przelicznik, kursy[i], kursy[i] + kursy[i] / 50));
+            }
+            tables.add(table);
+            date = date.plusDays(1);
+        }
+    }
+
+    @Benchmark
+    public double[] matrix() {
+        CrossRateMatrix matrix = new CrossRateMatrix(kodyWalut);
+        for (int t = 0, size = tables.size(); t < size; t++) {
+            matrix.addTable(tables.get(t));
+        }
+        return matrix.getStandardDeviations();
+    }
+}
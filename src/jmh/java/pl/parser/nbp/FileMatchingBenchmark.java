@@ -0,0 +1,68 @@
+package pl.parser.nbp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wybór plików z tabelami dla okresu ({@link NBPDataService#getXMLFileNames(LocalDate, LocalDate)}) na indeksach
+ * z lat 2013-2015. Serwis działa w trybie offline na kopii plików z fixtures;
+ * indeksy z lat ubiegłych są po pierwszym odczycie trzymane w pamięci, więc mierzone jest samo dopasowanie dat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileMatchingBenchmark {
+
+    private static final LocalDate END_DATE = LocalDate.of(2015, 12, 31);
+
+    @Param({"30", "365", "1095"})
+    private int days;
+
+    private Path cacheDirectory;
+    private AnnotationConfigApplicationContext ctx;
+    private NBPDataService dataService;
+    private LocalDate startDate;
+
+    @Setup
+    public void setUp() throws Exception {
+        cacheDirectory = BenchmarkFixtures.copyToCacheDirectory(BenchmarkFixtures.INDEX_FILES);
+        System.setProperty("nbp.cache.dir", cacheDirectory.toString());
+        System.setProperty("nbp.offline", "true");
+        ctx = new AnnotationConfigApplicationContext(AppConfig.class);
+        dataService = ctx.getBean(NBPDataService.class);
+        startDate = END_DATE.minusDays(days - 1);
+        if (dataService.getXMLFileNames(startDate, END_DATE).isEmpty()) {
+            throw new IllegalStateException("Nie znaleziono plików dla okresu " + startDate + " - " + END_DATE);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ctx.close();
+        BenchmarkFixtures.deleteCacheDirectory(cacheDirectory);
+    }
+
+    @Benchmark
+    public List<String> matchFiles() {
+        return dataService.getXMLFileNames(startDate, END_DATE);
+    }
+}
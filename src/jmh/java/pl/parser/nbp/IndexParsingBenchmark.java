@@ -0,0 +1,45 @@
+package pl.parser.nbp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsowanie całego rocznego pliku indeksu (dirYYYY.txt) do {@link TableIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexParsingBenchmark {
+
+    @Param({"dir2013.txt", "dir2014.txt", "dir2015.txt"})
+    private String fileName;
+
+    private byte[] indexFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        indexFile = BenchmarkFixtures.read(fileName);
+    }
+
+    @Benchmark
+    public TableIndex parse() throws Exception {
+        return TableIndex.parse(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(indexFile))));
+    }
+}
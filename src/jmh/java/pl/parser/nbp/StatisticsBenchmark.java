@@ -0,0 +1,99 @@
+package pl.parser.nbp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statystyki liczone przez {@link CurrencyCalculator} (średnia kursu kupna, odchylenie standardowe kursu sprzedaży)
+ * dla 10 tys. - 10 mln notowań: jedno przejście po notowaniach, łączenie wyników częściowych (jak w
+ * {@link NBPDataService#getStatistics}) oraz budowa i zapytanie indeksu sum prefiksowych.
+ *
+ * Kursy generowane są deterministycznie (błądzenie losowe wokół 4 zł), żeby uniknąć trzymania milionów notowań
+ * w repozytorium.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StatisticsBenchmark {
+
+    private static final int PARTS = 8;
+
+    @Param({"10000", "1000000", "10000000"})
+    private int size;
+
+    private long[] kursyKupna;
+    private long[] kursySprzedazy;
+    private ArrayRateSeries series;
+    private RatePrefixIndex prefixIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(20150102L);
+        kursyKupna = new long[size];
+        kursySprzedazy = new long[size];
+        series = new ArrayRateSeries("USD", size);
+        long kurs = 4 * RateParser.SCALE;
+        for (int i = 0; i < size; i++) {
+            kurs = Math.max(RateParser.SCALE, kurs + random.nextInt(201) - 100);
+            kursyKupna[i] = kurs;
+            kursySprzedazy[i] = kurs + kurs / 50;
+            series.append(i, kursyKupna[i], kursySprzedazy[i]);
+        }
+        prefixIndex = new RatePrefixIndex(series);
+    }
+
+    @Benchmark
+    public double singlePass() {
+        StatisticsAccumulator kupno = new StatisticsAccumulator();
+        StatisticsAccumulator sprzedaz = new StatisticsAccumulator();
+        for (int i = 0; i < size; i++) {
+            kupno.add(kursyKupna[i]);
+            sprzedaz.add(kursySprzedazy[i]);
+        }
+        return kupno.getMean() + sprzedaz.getStandardDeviation();
+    }
+
+    @Benchmark
+    public double mergedPartials() {
+        StatisticsAccumulator kupno = new StatisticsAccumulator();
+        StatisticsAccumulator sprzedaz = new StatisticsAccumulator();
+        int partSize = (size + PARTS - 1) / PARTS;
+        for (int from = 0; from < size; from += partSize) {
+            StatisticsAccumulator partialKupno = new StatisticsAccumulator();
+            StatisticsAccumulator partialSprzedaz = new StatisticsAccumulator();
+            for (int i = from, to = Math.min(size, from + partSize); i < to; i++) {
+                partialKupno.add(kursyKupna[i]);
+                partialSprzedaz.add(kursySprzedazy[i]);
+            }
+            kupno.merge(partialKupno);
+            sprzedaz.merge(partialSprzedaz);
+        }
+        return kupno.getMean() + sprzedaz.getStandardDeviation();
+    }
+
+    @Benchmark
+    public RatePrefixIndex prefixIndexBuild() {
+        return new RatePrefixIndex(series);
+    }
+
+    @Benchmark
+    public double prefixIndexQuery() {
+        QuotationStatistics statistics = prefixIndex.query(size / 4, size - size / 4);
+        return statistics.getBuy().getMean() + statistics.getSell().getStandardDeviation();
+    }
+}
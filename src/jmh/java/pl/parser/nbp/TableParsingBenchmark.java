@@ -0,0 +1,66 @@
+package pl.parser.nbp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.JAXBContext;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsowanie jednej tabeli kursów: JAXB (pełna tabela, jak w {@link NBPDataService#getPriceTables})
+ * w porównaniu z parserem strumieniowym {@link QuotationReader} - dla jednej waluty i dla wszystkich walut.
+ * Pliki czytane są z pamięci, więc wynik nie zawiera czasu pobierania.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableParsingBenchmark {
+
+    @Param({"c073z070413.xml", "c001z150102.xml", "c256z151231.xml"})
+    private String fileName;
+
+    private byte[] xml;
+    private JAXBContext jaxbContext;
+    private QuotationReader quotationReader;
+
+    @Setup
+    public void setUp() throws Exception {
+        xml = BenchmarkFixtures.read(fileName);
+        jaxbContext = JAXBContext.newInstance(TabelaKursow.class);
+        quotationReader = new QuotationReader();
+    }
+
+    @Benchmark
+    public TabelaKursow jaxb() throws Exception {
+        return (TabelaKursow) jaxbContext.createUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public Quotation staxSingleCurrency() throws Exception {
+        return quotationReader.read(new ByteArrayInputStream(xml), "USD");
+    }
+
+    @Benchmark
+    public Quotation staxLastCurrency() throws Exception {
+        return quotationReader.read(new ByteArrayInputStream(xml), "XDR");
+    }
+
+    @Benchmark
+    public List<Quotation> staxAllCurrencies() throws Exception {
+        return quotationReader.readAll(new ByteArrayInputStream(xml));
+    }
+}
@@ -1,10 +1,19 @@
 package pl.parser.nbp;
 
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
 
 @Configuration
 @ComponentScan("pl.parser.nbp")
 public class AppConfig {
 
+    /**
+     * Pozwala wstrzykiwać ustawienia (np. -Dnbp.cache.dir=..., -Dnbp.offline=true) przez @Value.
+     */
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
 }
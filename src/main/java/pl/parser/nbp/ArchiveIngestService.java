@@ -0,0 +1,367 @@
+package pl.parser.nbp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Wczytuje do {@link RateStore} lokalne archiwum plików NBP - katalog (także z podkatalogami) lub plik ZIP z tabelami
+ * c*.xml i indeksami dir*.txt - bez pobierania czegokolwiek z sieci. Pliki z archiwum ZIP czytane są strumieniowo,
+ * bez rozpakowywania na dysk.
+ *
+ * Tabele parsowane są równolegle w puli fork/join ('nbp.ingest.parallelism', domyślnie liczba procesorów), a następnie
+ * dopisywane do magazynu w kolejności dat publikacji. Dotychczasowa zawartość magazynu jest zastępowana.
+ *
+ * Indeksy z archiwum służą do sprawdzenia kompletności: rok, dla którego archiwum zawiera wszystkie tabele wymienione
+ * w indeksie, oznaczany jest w magazynie jako wczytany, więc zapytania o ten okres nie sięgają do serwisu NBP.
+ *
+ * Jeśli ustawiono 'nbp.snapshot.file', po wczytaniu archiwum zapisywana jest migawka magazynu ({@link RateSnapshot}),
+ * z której kolejne uruchomienia startują bez parsowania tabel.
+ */
+@Service
+public class ArchiveIngestService {
+
+    private static final String INDEX_FILE_PREFIX = "dir";
+    private static final String INDEX_FILE_SUFFIX = ".txt";
+    private static final String XML_FILE_SUFFIX = ".xml";
+    private static final int FILES_PER_TASK = 16;
+
+    @Autowired
+    private QuotationReader quotationReader;
+
+    @Autowired
+    private RateStore rateStore;
+
+    @Autowired
+    private NBPMetrics metrics;
+
+    @Value("${nbp.ingest.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * @param source katalog lub plik ZIP z plikami NBP
+     * @return podsumowanie - liczba tabel, okres z kompletem danych, pliki brakujące i błędne
+     * @throws IOException gdy archiwum nie da się otworzyć lub nie udało się zapisać migawki
+     */
+    public IngestResult ingest(Path source) throws IOException {
+        IngestResult result;
+        if (Files.isDirectory(source)) {
+            result = ingest(listDirectory(source));
+        } else {
+            ZipFile zip = new ZipFile(source.toFile());
+            try {
+                result = ingest(listZip(zip));
+            } finally {
+                zip.close();
+            }
+        }
+        Path snapshot = rateStore.getSnapshotFile();
+        if (snapshot != null) {
+            rateStore.saveSnapshot(snapshot);
+        }
+        return result;
+    }
+
+    /**
+     * Plik z archiwum - z katalogu lub z ZIP-a.
+     */
+    private interface ArchiveEntry {
+
+        /**
+         * @return nazwa pliku bez ścieżki, np. c073z070413.xml
+         */
+        String getName();
+
+        InputStream open() throws IOException;
+    }
+
+    private static List<ArchiveEntry> listDirectory(Path directory) throws IOException {
+        final List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    entries.add(new ArchiveEntry() {
+                        @Override
+                        public String getName() {
+                            return file.getFileName().toString();
+                        }
+
+                        @Override
+                        public InputStream open() throws IOException {
+                            return Files.newInputStream(file);
+                        }
+                    });
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * ZipFile pozwala czytać różne pozycje archiwum jednocześnie z wielu wątków.
+     */
+    private static List<ArchiveEntry> listZip(final ZipFile zip) {
+        List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+        Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+        while (zipEntries.hasMoreElements()) {
+            final ZipEntry zipEntry = zipEntries.nextElement();
+            if (zipEntry.isDirectory()) {
+                continue;
+            }
+            final String name = zipEntry.getName().substring(zipEntry.getName().lastIndexOf('/') + 1);
+            entries.add(new ArchiveEntry() {
+                @Override
+                public String getName() {
+                    return name;
+                }
+
+                @Override
+                public InputStream open() throws IOException {
+                    return zip.getInputStream(zipEntry);
+                }
+            });
+        }
+        return entries;
+    }
+
+    private IngestResult ingest(List<ArchiveEntry> entries) {
+        Map<String, TableIndex> indexes = new LinkedHashMap<String, TableIndex>();
+        final List<ArchiveEntry> tableEntries = new ArrayList<ArchiveEntry>();
+        final Map<ArchiveEntry, TableIndex.Entry> tableNames = new IdentityHashMap<ArchiveEntry, TableIndex.Entry>();
+        Queue<String> failedFiles = new ConcurrentLinkedQueue<String>();
+
+        for (ArchiveEntry entry : entries) {
+            String name = entry.getName();
+            if (name.startsWith(INDEX_FILE_PREFIX) && name.endsWith(INDEX_FILE_SUFFIX)) {
+                try {
+                    indexes.put(name, readIndex(entry));
+                } catch (IOException e) {
+                    metrics.error("Odczyt indeksu " + name + " z archiwum", e);
+                    failedFiles.add(name);
+                }
+            } else if (name.endsWith(XML_FILE_SUFFIX)) {
+                TableIndex.Entry tableName = TableIndex.Entry.parse(name.substring(0, name.length() - XML_FILE_SUFFIX.length()));
+                if (tableName != null && tableName.getTyp() == TableType.C.getKod()) {
+                    tableEntries.add(entry);
+                    tableNames.put(entry, tableName);
+                }
+            }
+        }
+
+        //kolejność publikacji - w tej kolejności tabele muszą trafić do magazynu
+        Collections.sort(tableEntries, new Comparator<ArchiveEntry>() {
+            @Override
+            public int compare(ArchiveEntry a, ArchiveEntry b) {
+                TableIndex.Entry first = tableNames.get(a);
+                TableIndex.Entry second = tableNames.get(b);
+                int byDate = first.getDataPublikacji().compareTo(second.getDataPublikacji());
+                return byDate != 0 ? byDate : Integer.compare(first.getNumer(), second.getNumer());
+            }
+        });
+
+        //wypełniona wartościami null - zadania ustawiają tylko swoje pozycje, rozmiar listy się nie zmienia
+        List<List<Quotation>> tables = new ArrayList<List<Quotation>>(Collections.<List<Quotation>>nCopies(tableEntries.size(), null));
+        ForkJoinPool pool = parallelism > 0 ? new ForkJoinPool(parallelism) : new ForkJoinPool();
+        try {
+            pool.invoke(new ParseTask(tableEntries, tables, failedFiles, 0, tables.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        Set<String> ingestedTables = new HashSet<String>();
+        int tableCount = 0;
+        int quotationCount = 0;
+        LocalDate first = null;
+        LocalDate last = null;
+        //archiwum wczytywane jest do osobnego magazynu, który na końcu zastępuje zawartość rateStore jedną podmianą -
+        //zapytania w tym czasie korzystają z poprzedniej zawartości
+        RateStore ingested = new RateStore();
+        for (int i = 0; i < tables.size(); i++) {
+            if (tables.get(i) == null) {
+                continue;
+            }
+            ingested.addTable(tables.get(i));
+            TableIndex.Entry tableName = tableNames.get(tableEntries.get(i));
+            ingestedTables.add(tableName.getFileName());
+            tableCount++;
+            quotationCount += tables.get(i).size();
+            LocalDate date = tableName.getDataPublikacjiAsDate();
+            first = first == null ? date : first;
+            last = date;
+        }
+        LocalDate[] loaded = getCompleteRange(indexes, ingestedTables);
+        if (loaded != null) {
+            ingested.markLoaded((int) loaded[0].toEpochDay(), (int) loaded[1].toEpochDay());
+        }
+        rateStore.replaceWith(ingested);
+
+        List<String> missingFiles = new ArrayList<String>();
+        for (TableIndex index : indexes.values()) {
+            for (TableIndex.Entry entry : index.getEntries(TableType.C)) {
+                if (!ingestedTables.contains(entry.getFileName())) {
+                    missingFiles.add(entry.getXmlFileName());
+                }
+            }
+        }
+        return new IngestResult(tableCount, quotationCount, ingested.getKodyWalut().size(), first, last,
+                loaded == null ? null : loaded[0], loaded == null ? null : loaded[1], missingFiles, new ArrayList<String>(failedFiles));
+    }
+
+    private static TableIndex readIndex(ArchiveEntry entry) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(entry.open()));
+        try {
+            return TableIndex.parse(br);
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Okres pokryty przez indeksy, których wszystkie tabele są w archiwum: dirYYYY.txt obejmuje cały rok YYYY,
+     * dir.txt - od początku roku do ostatniej tabeli w indeksie. Jeśli takie okresy nie tworzą ciągłego przedziału,
+     * wybierany jest najpóźniejszy ciągły przedział.
+     *
+     * @return {początek, koniec} lub null
+     */
+    private static LocalDate[] getCompleteRange(Map<String, TableIndex> indexes, Set<String> ingestedTables) {
+        List<LocalDate[]> ranges = new ArrayList<LocalDate[]>();
+        for (Map.Entry<String, TableIndex> index : indexes.entrySet()) {
+            LocalDate[] range = getIndexRange(index.getKey(), index.getValue());
+            if (range != null && containsAll(ingestedTables, index.getValue())) {
+                ranges.add(range);
+            }
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        Collections.sort(ranges, new Comparator<LocalDate[]>() {
+            @Override
+            public int compare(LocalDate[] a, LocalDate[] b) {
+                return a[0].compareTo(b[0]);
+            }
+        });
+        LocalDate[] merged = null;
+        for (LocalDate[] range : ranges) {
+            if (merged != null && !range[0].isAfter(merged[1].plusDays(1))) {
+                if (range[1].isAfter(merged[1])) {
+                    merged[1] = range[1];
+                }
+            } else {
+                merged = new LocalDate[]{range[0], range[1]};
+            }
+        }
+        return merged;
+    }
+
+    private static LocalDate[] getIndexRange(String indexFileName, TableIndex index) {
+        String year = indexFileName.substring(INDEX_FILE_PREFIX.length(), indexFileName.length() - INDEX_FILE_SUFFIX.length());
+        if (year.isEmpty()) {
+            TableIndex.Entry last = index.getLastEntry(TableType.C);
+            if (last == null) {
+                return null;
+            }
+            LocalDate lastDate = last.getDataPublikacjiAsDate();
+            return new LocalDate[]{lastDate.withDayOfYear(1), lastDate};
+        }
+        try {
+            LocalDate start = LocalDate.of(Integer.parseInt(year), 1, 1);
+            return new LocalDate[]{start, start.withDayOfYear(start.lengthOfYear())};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean containsAll(Set<String> ingestedTables, TableIndex index) {
+        for (TableIndex.Entry entry : index.getEntries(TableType.C)) {
+            if (!ingestedTables.contains(entry.getFileName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Dzieli listę plików na połowy aż do {@link #FILES_PER_TASK} plików na zadanie. Wyniki zapisywane są w liście
+     * pod indeksem pliku, więc kolejność nie zależy od kolejności wykonania zadań.
+     */
+    private class ParseTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<ArchiveEntry> entries;
+        private final List<List<Quotation>> tables;
+        private final Queue<String> failedFiles;
+        private final int from;
+        private final int to;
+
+        ParseTask(List<ArchiveEntry> entries, List<List<Quotation>> tables, Queue<String> failedFiles, int from, int to) {
+            this.entries = entries;
+            this.tables = tables;
+            this.failedFiles = failedFiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FILES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(entries, tables, failedFiles, from, middle),
+                        new ParseTask(entries, tables, failedFiles, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                tables.set(i, parse(entries.get(i)));
+            }
+        }
+
+        private List<Quotation> parse(ArchiveEntry entry) {
+            long start = System.nanoTime();
+            try {
+                InputStream is = entry.open();
+                try {
+                    List<Quotation> table = quotationReader.readAll(is);
+                    metrics.fileParsed();
+                    return table;
+                } finally {
+                    is.close();
+                }
+            } catch (Exception e) {
+                metrics.error("Odczyt tabeli " + entry.getName() + " z archiwum", e);
+                failedFiles.add(entry.getName());
+                return null;
+            } finally {
+                metrics.timer(NBPMetrics.Stage.PARSE).recordSince(start);
+            }
+        }
+    }
+}
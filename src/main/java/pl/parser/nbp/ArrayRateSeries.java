@@ -0,0 +1,100 @@
+package pl.parser.nbp;
+
+import java.util.Arrays;
+
+/**
+ * Szereg kursów przechowywany w tablicach typów prostych, dopisywany na końcu.
+ *
+ * Dopisywanie jest synchronizowane, odczyt odbywa się bez blokad: tablice wraz z liczbą notowań publikowane są
+ * razem przez pole volatile, a raz zapisane notowanie nigdy się nie zmienia, więc czytelnik zawsze widzi
+ * spójny (ewentualnie nieco starszy) stan szeregu.
+ */
+public class ArrayRateSeries extends RateSeries {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final String kodWaluty;
+    private volatile Columns columns;
+
+    public ArrayRateSeries(String kodWaluty) {
+        this(kodWaluty, INITIAL_CAPACITY);
+    }
+
+    public ArrayRateSeries(String kodWaluty, int capacity) {
+        this.kodWaluty = kodWaluty;
+        this.columns = new Columns(new int[capacity], new long[capacity], new long[capacity], 0);
+    }
+
+    /**
+     * @return kopia dowolnego szeregu, do której można dopisywać kolejne notowania
+     */
+    public static ArrayRateSeries copyOf(RateSeries series) {
+        ArrayRateSeries copy = new ArrayRateSeries(series.getKodWaluty(), Math.max(INITIAL_CAPACITY, series.size()));
+        for (int i = 0; i < series.size(); i++) {
+            copy.append(series.getEpochDay(i), series.getKursKupna(i), series.getKursSprzedazy(i));
+        }
+        return copy;
+    }
+
+    /**
+     * Dopisuje notowanie na końcu szeregu. Notowania z dni nie późniejszych niż ostatni zapisany są pomijane.
+     *
+     * @return true, jeśli notowanie zostało dopisane
+     */
+    public synchronized boolean append(int epochDay, long kursKupna, long kursSprzedazy) {
+        Columns current = columns;
+        int size = current.size;
+        if (size > 0 && current.epochDays[size - 1] >= epochDay) {
+            return false;
+        }
+        if (size == current.epochDays.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+            current = new Columns(Arrays.copyOf(current.epochDays, capacity), Arrays.copyOf(current.kursyKupna, capacity),
+                    Arrays.copyOf(current.kursySprzedazy, capacity), size);
+        }
+        current.epochDays[size] = epochDay;
+        current.kursyKupna[size] = kursKupna;
+        current.kursySprzedazy[size] = kursSprzedazy;
+        columns = new Columns(current.epochDays, current.kursyKupna, current.kursySprzedazy, size + 1);
+        return true;
+    }
+
+    @Override
+    public String getKodWaluty() {
+        return kodWaluty;
+    }
+
+    @Override
+    public int size() {
+        return columns.size;
+    }
+
+    @Override
+    public int getEpochDay(int index) {
+        return columns.epochDays[index];
+    }
+
+    @Override
+    public long getKursKupna(int index) {
+        return columns.kursyKupna[index];
+    }
+
+    @Override
+    public long getKursSprzedazy(int index) {
+        return columns.kursySprzedazy[index];
+    }
+
+    private static final class Columns {
+        final int[] epochDays;
+        final long[] kursyKupna;
+        final long[] kursySprzedazy;
+        final int size;
+
+        Columns(int[] epochDays, long[] kursyKupna, long[] kursySprzedazy, int size) {
+            this.epochDays = epochDays;
+            this.kursyKupna = kursyKupna;
+            this.kursySprzedazy = kursySprzedazy;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package pl.parser.nbp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tryb wsadowy - odpowiada na wiele zapytań w jednym uruchomieniu. Każda linia wejścia to jedno zapytanie postaci
+ * "USD 2013-01-28 2013-01-31" (pola oddzielone spacjami, przecinkami lub średnikami). Puste linie i linie zaczynające
+ * się od '#' są pomijane.
+ *
+ * Wszystkie poprawne zapytania liczone są razem przez {@link NBPDataService#getStatistics(List)}, więc każdy plik NBP
+ * pobierany jest tylko raz. Wyniki wypisywane są w kolejności zapytań, jako CSV (z nagłówkiem) lub jako JSON - jeden
+ * obiekt w linii, w tym samym formacie co w {@link QueryServer}. Niepoprawne zapytania nie przerywają przetwarzania -
+ * dla nich wypisywany jest opis błędu.
+ */
+@Service
+public class BatchQueryService {
+
+    public enum OutputFormat {
+        CSV, JSON
+    }
+
+    static final String CSV_HEADER = "currency,start,end,count,buyMean,sellStdDev,failedFiles,error";
+
+    private static final String FIELD_SEPARATORS = "[\\s,;]+";
+    private static final String COMMENT_PREFIX = "#";
+
+    @Autowired
+    private NBPDataService NBPDataService;
+
+    /**
+     * @param input  zapytania, jedno w linii
+     * @param output tu wypisywane są wyniki
+     * @param format format wyników
+     * @return liczba zapytań, na które udało się odpowiedzieć
+     * @throws IOException gdy nie da się odczytać wejścia
+     */
+    public int run(BufferedReader input, PrintWriter output, OutputFormat format) throws IOException {
+        List<String[]> lines = new ArrayList<String[]>();
+        List<String> errors = new ArrayList<String>();
+        List<RateQuery> queries = new ArrayList<RateQuery>();
+
+        String line;
+        while ((line = input.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) {
+                continue;
+            }
+            String[] fields = line.split(FIELD_SEPARATORS);
+            lines.add(fields);
+            if (fields.length != 3) {
+                errors.add("Zapytanie musi mieć postać: WALUTA DATA_POCZĄTKOWA DATA_KOŃCOWA - " + line);
+                continue;
+            }
+            try {
+                queries.add(RateQuery.parse(fields[0], fields[1], fields[2]));
+                errors.add(null);
+            } catch (ParseException e) {
+                errors.add(e.getMessage());
+            } catch (DatesInWrongOrderException e) {
+                errors.add(e.getMessage());
+            }
+        }
+
+        Iterator<QuotationStatistics> results = NBPDataService.getStatistics(queries).iterator();
+        if (format == OutputFormat.CSV) {
+            output.println(CSV_HEADER);
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i);
+            String error = errors.get(i);
+            if (error != null) {
+                output.println(format == OutputFormat.CSV ? toCsvError(fields, error) : toJsonError(fields, error));
+            } else if (format == OutputFormat.CSV) {
+                output.println(toCsv(fields[0], fields[1], fields[2], results.next()));
+            } else {
+                output.println(QueryServer.toJson(fields[0], fields[1], fields[2], results.next()));
+            }
+        }
+        output.flush();
+        return queries.size();
+    }
+
+    static String toCsv(String currency, String start, String end, QuotationStatistics statistics) {
+        StatisticsAccumulator buy = statistics.getBuy();
+        StatisticsAccumulator sell = statistics.getSell();
+        StringBuilder failedFiles = new StringBuilder();
+        for (String failedFile : statistics.getFailedFiles()) {
+            if (failedFiles.length() > 0) {
+                failedFiles.append(' ');
+            }
+            failedFiles.append(failedFile);
+        }
+        return csv(currency) + ',' + csv(start) + ',' + csv(end)
+                + ',' + buy.getCount()
+                + ',' + (buy.isEmpty() ? "" : QueryServer.format(buy.getMean()))
+                + ',' + (sell.isEmpty() ? "" : QueryServer.format(sell.getStandardDeviation()))
+                + ',' + csv(failedFiles.toString())
+                + ',';
+    }
+
+    private static String toCsvError(String[] fields, String error) {
+        return csv(field(fields, 0)) + ',' + csv(field(fields, 1)) + ',' + csv(field(fields, 2)) + ",,,,," + csv(error);
+    }
+
+    private static String toJsonError(String[] fields, String error) {
+        return "{\"currency\":" + QueryServer.quote(field(fields, 0))
+                + ",\"start\":" + QueryServer.quote(field(fields, 1))
+                + ",\"end\":" + QueryServer.quote(field(fields, 2))
+                + ",\"error\":" + QueryServer.quote(error)
+                + "}";
+    }
+
+    private static String field(String[] fields, int index) {
+        return index < fields.length ? fields[index] : "";
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
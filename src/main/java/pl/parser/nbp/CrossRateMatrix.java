@@ -0,0 +1,202 @@
+package pl.parser.nbp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Kursy krzyżowe wszystkich par z podanego zestawu walut, wyliczane przez złotego: kurs waluty i w walucie j to
+ * (cena i w złotych) / (cena j w złotych), gdzie cena to kurs z tabeli podzielony przez przelicznik
+ * (np. kurs HUF podawany jest za 100 jednostek).
+ *
+ * Jako cenę przyjmuje się kurs średni (tabele A, B), a dla tabel bez kursu średniego (C, H) - średnią z kursów kupna
+ * i sprzedaży.
+ *
+ * Statystyki (liczba notowań, średnia, odchylenie standardowe populacji, minimum i maksimum) zbierane są dla każdej
+ * pary w jednym przebiegu po tabelach, w tablicach n*n indeksowanych [i * n + j] - bez obiektów dla pojedynczych par.
+ * Średnia i wariancja liczone są metodą Welforda, więc długie okresy nie tracą dokładności.
+ *
+ * Klasa nie jest bezpieczna wątkowo.
+ */
+public class CrossRateMatrix {
+
+    private final List<String> kodyWalut;
+    private final int n;
+    /**
+     * numer waluty z {@link CurrencyCodes} -> kolumna macierzy (-1 - waluta spoza zestawu)
+     */
+    private int[] columns;
+
+    private final double[] prices;
+    private final long[] counts;
+    private final double[] means;
+    private final double[] m2;
+    private final double[] minima;
+    private final double[] maxima;
+    private final double[] last;
+    private int tables;
+
+    /**
+     * @param kodyWalut kody walut - kolejność wyznacza wiersze i kolumny macierzy
+     */
+    public CrossRateMatrix(List<String> kodyWalut) {
+        this.kodyWalut = Collections.unmodifiableList(new ArrayList<String>(kodyWalut));
+        this.n = kodyWalut.size();
+        this.columns = new int[0];
+        for (int i = 0; i < n; i++) {
+            int waluta = CurrencyCodes.ordinal(kodyWalut.get(i));
+            if (waluta >= columns.length) {
+                int oldLength = columns.length;
+                columns = Arrays.copyOf(columns, waluta + 1);
+                Arrays.fill(columns, oldLength, columns.length, -1);
+            }
+            columns[waluta] = i;
+        }
+        prices = new double[n];
+        counts = new long[n * n];
+        means = new double[n * n];
+        m2 = new double[n * n];
+        minima = new double[n * n];
+        maxima = new double[n * n];
+        last = new double[n * n];
+        Arrays.fill(minima, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxima, Double.NEGATIVE_INFINITY);
+        Arrays.fill(last, Double.NaN);
+    }
+
+    /**
+     * Dodaje kursy krzyżowe z jednej tabeli. Pary, w których brakuje którejś waluty, są dla tej tabeli pomijane.
+     *
+     * @param table notowania z jednej tabeli kursów
+     */
+    public void addTable(List<Quotation> table) {
+        Arrays.fill(prices, Double.NaN);
+        for (int k = 0, size = table.size(); k < size; k++) {
+            Quotation quotation = table.get(k);
+            int waluta = quotation.getWaluta();
+            int column = waluta < columns.length ? columns[waluta] : -1;
+            if (column >= 0) {
+                prices[column] = price(quotation);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            double price = prices[i];
+            int row = i * n;
+            for (int j = 0; j < n; j++) {
+                int cell = row + j;
+                if (price != price || prices[j] != prices[j]) {
+                    //brak którejś waluty w tabeli (NaN)
+                    last[cell] = Double.NaN;
+                    continue;
+                }
+                double rate = price / prices[j];
+                long count = ++counts[cell];
+                double delta = rate - means[cell];
+                means[cell] += delta / count;
+                m2[cell] += delta * (rate - means[cell]);
+                if (rate < minima[cell]) {
+                    minima[cell] = rate;
+                }
+                if (rate > maxima[cell]) {
+                    maxima[cell] = rate;
+                }
+                last[cell] = rate;
+            }
+        }
+        tables++;
+    }
+
+    /**
+     * @return cena jednej jednostki waluty w złotych lub NaN, jeśli tabela nie podaje kursu
+     */
+    private static double price(Quotation quotation) {
+        //średnia z kursów kupna i sprzedaży liczona w double - suma może być nieparzysta (pół jednostki)
+        double rate = quotation.getKursSredni() != 0 ? quotation.getKursSredni()
+                : (quotation.getKursKupna() + quotation.getKursSprzedazy()) / 2.0;
+        if (rate <= 0 || quotation.getPrzelicznik() <= 0) {
+            return Double.NaN;
+        }
+        return rate / RateParser.SCALE / quotation.getPrzelicznik();
+    }
+
+    public List<String> getKodyWalut() {
+        return kodyWalut;
+    }
+
+    /**
+     * @return liczba dodanych tabel
+     */
+    public int getTables() {
+        return tables;
+    }
+
+    /**
+     * @return indeks komórki pary (waluta bazowa, waluta kwotowana) w tablicach zwracanych przez metody get*s()
+     */
+    public int cell(int base, int quote) {
+        return base * n + quote;
+    }
+
+    /**
+     * @return liczba notowań pary w każdej komórce
+     */
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * @return średnie kursy krzyżowe (NaN dla par bez notowań)
+     */
+    public double[] getMeans() {
+        double[] result = new double[n * n];
+        for (int cell = 0; cell < result.length; cell++) {
+            result[cell] = counts[cell] > 0 ? means[cell] : Double.NaN;
+        }
+        return result;
+    }
+
+    /**
+     * @return odchylenia standardowe populacji kursów krzyżowych (NaN dla par bez notowań)
+     */
+    public double[] getStandardDeviations() {
+        double[] result = new double[n * n];
+        for (int cell = 0; cell < result.length; cell++) {
+            result[cell] = counts[cell] > 0 ? Math.sqrt(m2[cell] / counts[cell]) : Double.NaN;
+        }
+        return result;
+    }
+
+    /**
+     * @return najniższe kursy krzyżowe (NaN dla par bez notowań)
+     */
+    public double[] getMinima() {
+        double[] result = minima.clone();
+        for (int cell = 0; cell < result.length; cell++) {
+            if (counts[cell] == 0) {
+                result[cell] = Double.NaN;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return najwyższe kursy krzyżowe (NaN dla par bez notowań)
+     */
+    public double[] getMaxima() {
+        double[] result = maxima.clone();
+        for (int cell = 0; cell < result.length; cell++) {
+            if (counts[cell] == 0) {
+                result[cell] = Double.NaN;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return kursy krzyżowe z ostatniej dodanej tabeli (NaN dla par, których w niej nie było)
+     */
+    public double[] getLast() {
+        return last.clone();
+    }
+}
@@ -7,8 +7,10 @@ import org.springframework.stereotype.Component;
 import javax.xml.bind.JAXBException;
 import java.text.DecimalFormat;
 import java.text.ParseException;
-import java.util.ArrayList;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Component
 public class CurrencyCalculator {
@@ -16,61 +18,148 @@ public class CurrencyCalculator {
     @Autowired
     private NBPDataService NBPDataService;
 
-    public void calculateResults(String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
-        List<TabelaKursow> priceTables = NBPDataService.getPriceTables(startDateAsString, endDateAsString);
+    @Autowired
+    private NBPMetrics metrics;
 
-        List<Double> currencyBuyPrice = new ArrayList<Double>();
-        List<Double> currencySellPrice = new ArrayList<Double>();
+    public void calculateResults(String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        long start = System.nanoTime();
+        try {
+            printResults(currencyName, NBPDataService.getStatistics(currencyName, startDateAsString, endDateAsString));
+        } finally {
+            metrics.timer(NBPMetrics.Stage.QUERY).recordSince(start);
+        }
+    }
 
-        for (TabelaKursow tk : priceTables) {
-            for (TabelaKursow.Pozycja pozycja : tk.getPozycja()) {
-                if (pozycja.getKodWaluty().equals(currencyName)) {
-                    String buyPrice = pozycja.getKursKupna().replaceAll(",", ".");
-                    currencyBuyPrice.add(Double.valueOf(buyPrice));
+    /**
+     * Wypisuje średni kurs kupna i odchylenie standardowe kursu sprzedaży wielu walut naraz - po jednej linii
+     * "KOD średnia odchylenie" na walutę. Każda tabela z okresu jest odczytywana tylko raz.
+     *
+     * @param currencyNames kody walut; null - wszystkie waluty
+     */
+    public void calculateResults(Collection<String> currencyNames, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        long start = System.nanoTime();
+        try {
+            MultiCurrencyStatistics statistics = NBPDataService.getStatistics(currencyNames, startDateAsString, endDateAsString);
+            long computeStart = System.nanoTime();
+            DecimalFormat df = new DecimalFormat("0.0000");
+            for (Map.Entry<String, QuotationStatistics> currency : statistics.asMap().entrySet()) {
+                StatisticsAccumulator buy = currency.getValue().getBuy();
+                StatisticsAccumulator sell = currency.getValue().getSell();
+                System.out.println(currency.getKey()
+                        + " " + (buy.isEmpty() ? "-" : df.format(buy.getMean()))
+                        + " " + (sell.isEmpty() ? "-" : df.format(sell.getStandardDeviation())));
+            }
+            if (!statistics.isComplete()) {
+                System.err.println("Uwaga: nie udało się pobrać plików " + statistics.getFailedFiles() + " - wyniki nie uwzględniają zawartych w nich notowań.");
+            }
+            metrics.timer(NBPMetrics.Stage.COMPUTE).recordSince(computeStart);
+        } finally {
+            metrics.timer(NBPMetrics.Stage.QUERY).recordSince(start);
+        }
+    }
 
-                    String sellPrice = pozycja.getKursSprzedazy().replaceAll(",", ".");
-                    currencySellPrice.add(Double.valueOf(sellPrice));
+    /**
+     * Wypisuje średni kurs kupna i odchylenie standardowe kursu sprzedaży w oknie przesuwnym - po jednej linii
+     * "data_od data_do średnia odchylenie" na każde położenie okna, na bieżąco w trakcie odczytu tabel.
+     *
+     * @param windowSize liczba notowań w oknie
+     */
+    public void calculateRollingResults(String currencyName, String startDateAsString, String endDateAsString, int windowSize) throws DatesInWrongOrderException, JAXBException, ParseException {
+        long start = System.nanoTime();
+        try {
+            final DecimalFormat df = new DecimalFormat("0.0000");
+            long windows = NBPDataService.getRollingStatistics(currencyName, startDateAsString, endDateAsString, windowSize, new RollingStatistics.Listener() {
+                @Override
+                public void window(LocalDate first, LocalDate last, StatisticsAccumulator buy, StatisticsAccumulator sell) {
+                    System.out.println(first + " " + last + " " + df.format(buy.getMean()) + " " + df.format(sell.getStandardDeviation()));
                 }
+            });
+            if (windows == 0) {
+                System.out.println("Za mało notowań waluty " + currencyName + " do wypełnienia okna o rozmiarze " + windowSize);
+            }
+        } finally {
+            metrics.timer(NBPMetrics.Stage.QUERY).recordSince(start);
+        }
+    }
+
+    /**
+     * Wypisuje notowania waluty z tabel wybranego typu - po jednej linii na tabelę: data publikacji i kurs średni
+     * (tabele A, B) albo kursy kupna i sprzedaży (tabele C, H).
+     */
+    public void printRates(TableType tableType, String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        long start = System.nanoTime();
+        try {
+            DecimalFormat df = new DecimalFormat("0.0000");
+            boolean midRates = tableType == TableType.A || tableType == TableType.B;
+            for (Quotation quotation : NBPDataService.getQuotations(tableType, currencyName, startDateAsString, endDateAsString)) {
+                System.out.println(quotation.getDataPublikacji() + " " + (midRates
+                        ? df.format((double) quotation.getKursSredni() / RateParser.SCALE)
+                        : df.format((double) quotation.getKursKupna() / RateParser.SCALE) + " " + df.format((double) quotation.getKursSprzedazy() / RateParser.SCALE)));
+            }
+        } finally {
+            metrics.timer(NBPMetrics.Stage.QUERY).recordSince(start);
+        }
+    }
+
+    /**
+     * Wypisuje macierze średnich kursów krzyżowych i ich odchyleń standardowych - wiersz to waluta bazowa,
+     * kolumna to waluta, w której wyrażony jest kurs.
+     *
+     * @param currencyNames kody walut; null - waluty z pierwszej tabeli okresu
+     */
+    public void printCrossRates(TableType tableType, List<String> currencyNames, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        long start = System.nanoTime();
+        try {
+            CrossRateMatrix matrix = NBPDataService.getCrossRates(tableType, currencyNames, startDateAsString, endDateAsString);
+            System.out.println("Średnie kursy krzyżowe (" + matrix.getTables() + " tabel)");
+            printMatrix(matrix, matrix.getMeans());
+            System.out.println("Odchylenia standardowe");
+            printMatrix(matrix, matrix.getStandardDeviations());
+        } finally {
+            metrics.timer(NBPMetrics.Stage.QUERY).recordSince(start);
+        }
+    }
+
+    private static void printMatrix(CrossRateMatrix matrix, double[] values) {
+        DecimalFormat df = new DecimalFormat("0.000000");
+        List<String> kodyWalut = matrix.getKodyWalut();
+        StringBuilder header = new StringBuilder("   ");
+        for (String kodWaluty : kodyWalut) {
+            header.append(' ').append(String.format("%12s", kodWaluty));
+        }
+        System.out.println(header);
+        for (int i = 0; i < kodyWalut.size(); i++) {
+            StringBuilder row = new StringBuilder(kodyWalut.get(i));
+            for (int j = 0; j < kodyWalut.size(); j++) {
+                double value = values[matrix.cell(i, j)];
+                row.append(' ').append(String.format("%12s", Double.isNaN(value) ? "-" : df.format(value)));
             }
+            System.out.println(row);
         }
+    }
+
+    private void printResults(String currencyName, QuotationStatistics statistics) {
+        long start = System.nanoTime();
+        StatisticsAccumulator currencyBuyPrice = statistics.getBuy();
+        StatisticsAccumulator currencySellPrice = statistics.getSell();
+
         DecimalFormat df = new DecimalFormat("0.0000");
 
         if (currencyBuyPrice.isEmpty()) {
             System.out.println("Brak danych do policzenia średniej ceny kupna waluty " + currencyName);
         } else {
-            System.out.println(df.format(calculateMeanValue(currencyBuyPrice)));
+            System.out.println(df.format(currencyBuyPrice.getMean()));
         }
 
         if (currencySellPrice.isEmpty()) {
             System.out.println("Brak danych do policzenia odchylenia standardowego ceny sprzedaży waluty " + currencyName);
         } else {
-            System.out.println(df.format(calculateMeanDeviation(currencySellPrice)));
+            System.out.println(df.format(currencySellPrice.getStandardDeviation()));
         }
-    }
-
-    private Double calculateMeanValue(List<Double> numbers) {
-        if (numbers.size() > 0) {
-            Double sum = 0d;
-            for (Double number : numbers) {
-                sum += number;
-            }
-            return sum / numbers.size();
-        } else {
-            return 0d;
-        }
-    }
 
-    private Double calculateMeanDeviation(List<Double> numbers) {
-        if (numbers.size() > 0) {
-            Double sum = 0d;
-            Double meanValue = calculateMeanValue(numbers);
-            for (Double number : numbers) {
-                Double diff = number - meanValue;
-                sum += diff * diff;
-            }
-            return Math.sqrt(sum / numbers.size());
-        } else {
-            return 0d;
+        if (!statistics.isComplete()) {
+            System.err.println("Uwaga: nie udało się pobrać plików " + statistics.getFailedFiles() + " - wyniki nie uwzględniają zawartych w nich notowań.");
         }
+        metrics.timer(NBPMetrics.Stage.COMPUTE).recordSince(start);
     }
 }
@@ -0,0 +1,64 @@
+package pl.parser.nbp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Słownik kodów walut - każdy kod, który pojawił się w tabelach, dostaje kolejny numer (0, 1, 2...). Numer nadawany
+ * jest raz przy parsowaniu notowania ({@link Quotation#getWaluta()}), dzięki czemu statystyki wielu walut mogą być
+ * zbierane w tablicach indeksowanych numerem waluty, bez porównywania napisów przy każdej pozycji tabeli.
+ *
+ * Numery są stałe przez cały czas działania programu, ale nie między uruchomieniami - nie należy ich zapisywać.
+ */
+final class CurrencyCodes {
+
+    private static final ConcurrentMap<String, Integer> ORDINALS = new ConcurrentHashMap<String, Integer>();
+    private static final List<String> CODES = new ArrayList<String>();
+
+    private CurrencyCodes() {
+    }
+
+    /**
+     * @return numer kodu waluty; dla nowego kodu nadawany jest kolejny numer
+     */
+    static int ordinal(String kodWaluty) {
+        Integer ordinal = ORDINALS.get(kodWaluty);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (CODES) {
+            ordinal = ORDINALS.get(kodWaluty);
+            if (ordinal == null) {
+                ordinal = CODES.size();
+                CODES.add(kodWaluty);
+                ORDINALS.put(kodWaluty, ordinal);
+            }
+            return ordinal;
+        }
+    }
+
+    /**
+     * @return numer kodu waluty lub -1, jeśli taki kod nie wystąpił jeszcze w żadnej tabeli
+     */
+    static int find(String kodWaluty) {
+        Integer ordinal = ORDINALS.get(kodWaluty);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    static String code(int ordinal) {
+        synchronized (CODES) {
+            return CODES.get(ordinal);
+        }
+    }
+
+    /**
+     * @return liczba nadanych numerów - wszystkie numery są mniejsze od tej wartości
+     */
+    static int size() {
+        synchronized (CODES) {
+            return CODES.size();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package pl.parser.nbp;
 
+import java.time.LocalDate;
 import java.util.Date;
 
 /**
@@ -9,4 +10,8 @@ public class DatesInWrongOrderException extends Exception {
     public DatesInWrongOrderException(Date startDate, Date endDate) {
         super("Zła kolejność dat: " + startDate + " nie jest przed " + endDate);
     }
+
+    public DatesInWrongOrderException(LocalDate startDate, LocalDate endDate) {
+        super("Zła kolejność dat: " + startDate + " nie jest przed " + endDate);
+    }
 }
@@ -0,0 +1,86 @@
+package pl.parser.nbp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Odświeżanie indeksu bieżącego roku (dir.txt) w tle, co 'nbp.refresh.interval' sekund (0 - wyłączone).
+ *
+ * Po każdym sprawdzeniu parsowane są tylko nowe linie indeksu, a nowo opublikowane tabele są od razu pobierane
+ * i dopisywane do {@link RateStore}. Zapytania nie muszą wtedy sprawdzać dir.txt na serwerze NBP - korzystają
+ * z indeksu w pamięci. W trybie offline odświeżanie nie jest uruchamiane.
+ */
+@Component
+public class IndexRefresher {
+
+    private static final Log LOG = LogFactory.getLog(IndexRefresher.class);
+
+    @Autowired
+    private NBPDataService dataService;
+
+    @Autowired
+    private NBPFileCache fileCache;
+
+    @Autowired
+    private NBPMetrics metrics;
+
+    @Value("${nbp.refresh.interval:0}")
+    private long refreshInterval;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        if (refreshInterval <= 0 || fileCache.isOffline()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "nbp-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, 0, refreshInterval, TimeUnit.SECONDS);
+        dataService.setBackgroundRefresh(true);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            dataService.setBackgroundRefresh(false);
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Wyjątek nie może wyjść poza tę metodę - przerwałby kolejne uruchomienia zaplanowanego zadania.
+     */
+    private void refresh() {
+        try {
+            int newTables = dataService.refreshAndPrefetch();
+            if (newTables > 0) {
+                LOG.info("Nowe tabele kursów w indeksie: " + newTables);
+            }
+        } catch (Exception e) {
+            metrics.error("Odświeżanie indeksu", e);
+            LOG.warn("Nie udało się odświeżyć indeksu tabel kursów", e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package pl.parser.nbp;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Podsumowanie wczytania archiwum tabel przez {@link ArchiveIngestService}.
+ */
+public class IngestResult {
+
+    private final int tables;
+    private final int quotations;
+    private final int currencies;
+    private final LocalDate firstTableDate;
+    private final LocalDate lastTableDate;
+    private final LocalDate loadedFrom;
+    private final LocalDate loadedTo;
+    private final List<String> missingFiles;
+    private final List<String> failedFiles;
+
+    public IngestResult(int tables, int quotations, int currencies, LocalDate firstTableDate, LocalDate lastTableDate,
+                        LocalDate loadedFrom, LocalDate loadedTo, List<String> missingFiles, List<String> failedFiles) {
+        this.tables = tables;
+        this.quotations = quotations;
+        this.currencies = currencies;
+        this.firstTableDate = firstTableDate;
+        this.lastTableDate = lastTableDate;
+        this.loadedFrom = loadedFrom;
+        this.loadedTo = loadedTo;
+        this.missingFiles = Collections.unmodifiableList(new ArrayList<String>(missingFiles));
+        this.failedFiles = Collections.unmodifiableList(new ArrayList<String>(failedFiles));
+    }
+
+    public int getTables() {
+        return tables;
+    }
+
+    public int getQuotations() {
+        return quotations;
+    }
+
+    public int getCurrencies() {
+        return currencies;
+    }
+
+    /**
+     * @return data publikacji najstarszej wczytanej tabeli (null, jeśli nie wczytano żadnej)
+     */
+    public LocalDate getFirstTableDate() {
+        return firstTableDate;
+    }
+
+    public LocalDate getLastTableDate() {
+        return lastTableDate;
+    }
+
+    /**
+     * @return początek przedziału, dla którego indeksy z archiwum potwierdzają komplet tabel (null - brak takiego)
+     */
+    public LocalDate getLoadedFrom() {
+        return loadedFrom;
+    }
+
+    public LocalDate getLoadedTo() {
+        return loadedTo;
+    }
+
+    /**
+     * @return tabele wymienione w indeksach z archiwum, których w archiwum nie ma
+     */
+    public List<String> getMissingFiles() {
+        return missingFiles;
+    }
+
+    /**
+     * @return pliki, których nie udało się odczytać lub sparsować
+     */
+    public List<String> getFailedFiles() {
+        return failedFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "Wczytano tabel: " + tables + ", notowań: " + quotations + ", walut: " + currencies
+                + (tables > 0 ? ", tabele z okresu " + firstTableDate + " - " + lastTableDate : "")
+                + (loadedFrom != null ? ", komplet danych z okresu " + loadedFrom + " - " + loadedTo : ", brak okresu z kompletem danych")
+                + (missingFiles.isEmpty() ? "" : ", brakujące tabele: " + missingFiles.size())
+                + (failedFiles.isEmpty() ? "" : ", błędne pliki: " + failedFiles);
+    }
+}
@@ -0,0 +1,133 @@
+package pl.parser.nbp;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Szereg kursów tylko do odczytu, czytany bezpośrednio z pliku zmapowanego w pamięci - dane nie są kopiowane na stertę.
+ *
+ * Układ pliku: nagłówek (znacznik, wersja, liczba notowań, zarezerwowane - po 4 bajty), a po nim trzy kolumny:
+ * int[] dni notowań, long[] kursy kupna, long[] kursy sprzedaży (w jednostkach 1/{@link RateParser#SCALE}).
+ */
+public class MappedRateSeries extends RateSeries {
+
+    private static final int MAGIC = 0x4e425052; // "NBPR"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+
+    private final String kodWaluty;
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int kursyKupnaOffset;
+    private final int kursySprzedazyOffset;
+
+    private MappedRateSeries(String kodWaluty, ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Nieznany format pliku z kursami waluty " + kodWaluty);
+        }
+        this.kodWaluty = kodWaluty;
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.kursyKupnaOffset = HEADER_SIZE + 4 * size;
+        this.kursySprzedazyOffset = kursyKupnaOffset + 8 * size;
+        if (buffer.limit() < kursySprzedazyOffset + 8 * size) {
+            throw new IOException("Niepełny plik z kursami waluty " + kodWaluty);
+        }
+    }
+
+    /**
+     * @param buffer bufor, którego zawartość od bieżącej pozycji ma format zapisywany przez {@link #encode}
+     *               (np. fragment migawki {@link RateSnapshot}); dane nie są kopiowane
+     */
+    static MappedRateSeries wrap(String kodWaluty, ByteBuffer buffer) throws IOException {
+        return new MappedRateSeries(kodWaluty, buffer.slice());
+    }
+
+    public static MappedRateSeries open(String kodWaluty, Path file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return new MappedRateSeries(kodWaluty, buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Zapisuje szereg w formacie czytanym przez {@link #open}. Plik zapisywany jest pod nazwą tymczasową
+     * i dopiero potem podmieniany, więc istniejące mapowania starej wersji pozostają poprawne.
+     */
+    public static void write(RateSeries series, Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(series.size()));
+        encode(series, buffer);
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, buffer.array());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return liczba bajtów zajmowanych przez szereg o podanej liczbie notowań
+     */
+    static int encodedSize(int size) {
+        return HEADER_SIZE + 20 * size;
+    }
+
+    /**
+     * Zapisuje szereg od bieżącej pozycji bufora (nagłówek i trzy kolumny).
+     */
+    static void encode(RateSeries series, ByteBuffer buffer) {
+        int size = series.size();
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0);
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(series.getEpochDay(i));
+        }
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(series.getKursKupna(i));
+        }
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(series.getKursSprzedazy(i));
+        }
+    }
+
+    @Override
+    public String getKodWaluty() {
+        return kodWaluty;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getEpochDay(int index) {
+        return buffer.getInt(HEADER_SIZE + 4 * checkIndex(index));
+    }
+
+    @Override
+    public long getKursKupna(int index) {
+        return buffer.getLong(kursyKupnaOffset + 8 * checkIndex(index));
+    }
+
+    @Override
+    public long getKursSprzedazy(int index) {
+        return buffer.getLong(kursySprzedazyOffset + 8 * checkIndex(index));
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Indeks: " + index + ", liczba notowań: " + size);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,143 @@
+package pl.parser.nbp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Statystyki kursów wielu walut naraz, zbierane w jednym przebiegu po każdej tabeli. Statystyki każdej waluty
+ * trzymane są w tablicy pod numerem waluty z {@link CurrencyCodes}, więc dodanie notowania to jedno odwołanie
+ * do tablicy zamiast porównywania kodów walut.
+ *
+ * Klasa nie jest bezpieczna wątkowo - każdy wątek powinien zbierać własne statystyki i łączyć je metodą {@link #merge}.
+ */
+public class MultiCurrencyStatistics {
+
+    /**
+     * null - zbierane są wszystkie waluty
+     */
+    private final boolean[] selected;
+    private QuotationStatistics[] slots = new QuotationStatistics[0];
+    private final List<String> failedFiles = new ArrayList<String>();
+
+    /**
+     * Statystyki wszystkich walut występujących w tabelach.
+     */
+    public MultiCurrencyStatistics() {
+        this.selected = null;
+    }
+
+    /**
+     * @param kodyWalut kody walut, dla których zbierane są statystyki; null - wszystkie waluty
+     */
+    public MultiCurrencyStatistics(Collection<String> kodyWalut) {
+        if (kodyWalut == null) {
+            this.selected = null;
+            return;
+        }
+        int[] ordinals = new int[kodyWalut.size()];
+        int max = -1;
+        int i = 0;
+        for (String kodWaluty : kodyWalut) {
+            ordinals[i] = CurrencyCodes.ordinal(kodWaluty);
+            max = Math.max(max, ordinals[i++]);
+        }
+        this.selected = new boolean[max + 1];
+        for (int ordinal : ordinals) {
+            selected[ordinal] = true;
+        }
+        slots = new QuotationStatistics[max + 1];
+        for (int ordinal : ordinals) {
+            slots[ordinal] = new QuotationStatistics();
+        }
+    }
+
+    /**
+     * @param table notowania z jednej tabeli kursów
+     */
+    public void addTable(List<Quotation> table) {
+        for (int i = 0, size = table.size(); i < size; i++) {
+            add(table.get(i));
+        }
+    }
+
+    public void add(Quotation quotation) {
+        int waluta = quotation.getWaluta();
+        if (selected != null && (waluta >= selected.length || !selected[waluta])) {
+            return;
+        }
+        slot(waluta).add(quotation);
+    }
+
+    public void merge(MultiCurrencyStatistics other) {
+        for (int waluta = 0; waluta < other.slots.length; waluta++) {
+            if (other.slots[waluta] != null) {
+                slot(waluta).merge(other.slots[waluta]);
+            }
+        }
+        failedFiles.addAll(other.failedFiles);
+    }
+
+    /**
+     * @param fileName plik, którego nie udało się pobrać - jego notowania nie są uwzględnione w żadnej walucie
+     */
+    public void addFailedFile(String fileName) {
+        failedFiles.add(fileName);
+    }
+
+    public List<String> getFailedFiles() {
+        return Collections.unmodifiableList(failedFiles);
+    }
+
+    public boolean isComplete() {
+        return failedFiles.isEmpty();
+    }
+
+    /**
+     * @return statystyki waluty (puste, jeśli w okresie nie było jej notowań)
+     */
+    public QuotationStatistics get(String kodWaluty) {
+        int waluta = CurrencyCodes.find(kodWaluty);
+        QuotationStatistics statistics = waluta >= 0 && waluta < slots.length ? slots[waluta] : null;
+        return statistics != null ? withFailedFiles(statistics) : withFailedFiles(new QuotationStatistics());
+    }
+
+    /**
+     * @return statystyki walut w kolejności kodów; przy zbieraniu wybranych walut zawiera każdą z nich,
+     * przy zbieraniu wszystkich - waluty, które wystąpiły w tabelach
+     */
+    public SortedMap<String, QuotationStatistics> asMap() {
+        SortedMap<String, QuotationStatistics> map = new TreeMap<String, QuotationStatistics>();
+        for (int waluta = 0; waluta < slots.length; waluta++) {
+            if (slots[waluta] != null) {
+                map.put(CurrencyCodes.code(waluta), withFailedFiles(slots[waluta]));
+            }
+        }
+        return map;
+    }
+
+    private QuotationStatistics slot(int waluta) {
+        if (waluta >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(waluta + 1, CurrencyCodes.size()));
+        }
+        QuotationStatistics statistics = slots[waluta];
+        if (statistics == null) {
+            statistics = new QuotationStatistics();
+            slots[waluta] = statistics;
+        }
+        return statistics;
+    }
+
+    private QuotationStatistics withFailedFiles(QuotationStatistics statistics) {
+        QuotationStatistics copy = new QuotationStatistics();
+        copy.merge(statistics);
+        for (String failedFile : failedFiles) {
+            copy.addFailedFile(failedFile);
+        }
+        return copy;
+    }
+}
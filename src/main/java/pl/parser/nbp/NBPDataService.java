@@ -1,25 +1,39 @@
 package pl.parser.nbp;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.InputStreamReader;
-import java.net.URL;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Algorytm poszukiwania danych na serwerze wygląda następująco:
  * 1. Znaleźć wszystkie daty (w formacie NBP) znajdujące się pomiędzy datą początkową a datą końcową okresu.
  * 2. Znaleźć wszystkie "katalogi" z opisem istniejących notować, tzn. wybrać pliki dir*.txt odpowiednie dla danego okresu.
- * 3. Z danych z plików z punktu 2. utworzyć listę wszystkich nazw plików znajdujących się w tych plikach.
- * 4. Dla każdej daty z punktu 1. sprawdzić czy istnieje plik pasujący do niej. Jeśli taki plik istnieje - wybrać go do odczytania.
+ * 3. Z danych z plików z punktu 2. utworzyć indeks (TableIndex) odwzorowujący datę na nazwę pliku z notowaniem.
+ * 4. Dla każdej daty z punktu 1. sprawdzić w indeksie czy istnieje plik pasujący do niej. Jeśli taki plik istnieje - wybrać go do odczytania.
  * 5. Po kroku czwartym dysponujemy listę nazw plików które zawierają dane z notowań które wystąpiły w szukanym okresie. Dzięki temu odczytujemy
  *    tylko te pliki z danymi notowań które są nam niezbędne...
  *
@@ -30,16 +44,71 @@ import java.util.*;
  *  4. sprawdzamy datę która się kryje pod polem 'dataNotowan' dla kazdego dokumentu z punktu 3. i na tej podstawie decydujemy czy notowanie liczy się do
  *     średniej / odchylenia standardowego czy nie.
  *
+ *  Pliki XML z punktu 5. pobierane i parsowane są równolegle przez pulę wątków o rozmiarze 'nbp.fetch.concurrency'
+ *  (domyślnie 8), dzięki czemu oczekiwanie na kolejne pliki z sieci nakłada się z parsowaniem już pobranych.
+ *  Wyniki zwracane są zawsze w kolejności dat notowań. Metody iterate* zwracają je leniwie ({@link TableIterator}),
+ *  bez gromadzenia wszystkich tabel okresu w pamięci.
+ *
  */
 @Service
 public class NBPDataService {
 
-    private static final String INPUT_DATE_FORMAT = "yyyy-MM-dd";
-    private static final String NBP_DATE_FORMAT = "yyMMdd";
+    /**
+     * Najstarszy rok, dla którego serwis NBP udostępnia plik z indeksem tabel.
+     */
+    static final int FIRST_INDEX_YEAR = 2002;
+
+    @Autowired
+    private NBPFileCache fileCache;
+
+    @Autowired
+    private QuotationReader quotationReader;
+
+    @Autowired
+    private RateStore rateStore;
+
+    @Autowired
+    private NBPMetrics metrics;
+
+    @Value("${nbp.fetch.concurrency:8}")
+    private int fetchConcurrency;
+
+    private final ConcurrentMap<String, TableIndex> tableIndexCache = new ConcurrentHashMap<String, TableIndex>();
+    private final SingleFlight<String, TableIndex> indexReads = new SingleFlight<String, TableIndex>();
+    private final SingleFlight<String, Object> xmlFileReads = new SingleFlight<String, Object>();
 
-    private static final DateFormat inputDateFormat = new SimpleDateFormat(INPUT_DATE_FORMAT);
-    private static final DateFormat nbpDateFormat = new SimpleDateFormat(NBP_DATE_FORMAT);
-    private static final String HTTP_WWW_NBP_PL_KURSY_XML = "http://www.nbp.pl/kursy/xml/";
+    private final Object currentIndexLock = new Object();
+    private volatile boolean backgroundRefresh;
+
+    private JAXBContext jaxbContext;
+    private ExecutorService fetchExecutor;
+
+    @PostConstruct
+    public void init() throws JAXBException {
+        jaxbContext = JAXBContext.newInstance(TabelaKursow.class);
+        fetchExecutor = Executors.newFixedThreadPool(fetchConcurrency, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "nbp-fetch-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param backgroundRefresh true, jeśli indeks bieżącego roku jest odświeżany w tle i zapytania nie muszą go sprawdzać
+     */
+    void setBackgroundRefresh(boolean backgroundRefresh) {
+        this.backgroundRefresh = backgroundRefresh;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fetchExecutor.shutdownNow();
+    }
 
     /**
      * @param startDateAsString data początkowa liczonego okresu
@@ -50,22 +119,556 @@ public class NBPDataService {
      * @throws ParseException
      */
     public List<TabelaKursow> getPriceTables(String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
-        Date startDate = inputDateFormat.parse(startDateAsString);
-        Date endDate = inputDateFormat.parse(endDateAsString);
-        if (startDate.after(endDate)) {
+        return readXMLFiles(getXMLFileNames(startDateAsString, endDateAsString), priceTableParser());
+    }
+
+    /**
+     * Leniwy odpowiednik {@link #getPriceTables(String, String)} - tabele pobierane są w miarę odbierania ich
+     * z iteratora, najwyżej 'nbp.fetch.concurrency' naprzód. Iterator przerwany przed końcem trzeba zamknąć.
+     *
+     * @param startDateAsString data początkowa liczonego okresu
+     * @param endDateAsString   data końcowa liczonego okresu
+     * @return iterator tabel w kolejności dat
+     * @throws DatesInWrongOrderException
+     * @throws ParseException
+     */
+    public TableIterator<TabelaKursow> iteratePriceTables(String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, ParseException {
+        return iterateXMLFiles(getXMLFileNames(startDateAsString, endDateAsString), priceTableParser());
+    }
+
+    /**
+     * Leniwy odpowiednik {@link #getQuotations(String, String, String)}.
+     *
+     * @param currencyName      kod waluty, np. USD
+     * @param startDateAsString data początkowa liczonego okresu
+     * @param endDateAsString   data końcowa liczonego okresu
+     * @return iterator notowań waluty w kolejności dat (tabele bez tej waluty są pomijane)
+     * @throws DatesInWrongOrderException
+     * @throws ParseException
+     */
+    public TableIterator<Quotation> iterateQuotations(String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, ParseException {
+        return iterateQuotations(TableType.C, currencyName, startDateAsString, endDateAsString);
+    }
+
+    /**
+     * Leniwy odpowiednik {@link #getQuotations(TableType, String, String, String)}.
+     *
+     * @param tableType         typ tabel
+     * @param currencyName      kod waluty, np. USD
+     * @param startDateAsString data początkowa liczonego okresu
+     * @param endDateAsString   data końcowa liczonego okresu
+     * @return iterator notowań waluty w kolejności dat (tabele bez tej waluty są pomijane)
+     * @throws DatesInWrongOrderException
+     * @throws ParseException
+     */
+    public TableIterator<Quotation> iterateQuotations(TableType tableType, String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, ParseException {
+        return iterateXMLFiles(getXMLFileNames(tableType, startDateAsString, endDateAsString, null), quotationParser(currencyName));
+    }
+
+    /**
+     * Odpowiednik {@link #getPriceTables(String, String)} dla obliczeń na jednej walucie - zamiast pełnych tabel
+     * zwraca tylko notowania szukanej waluty, odczytane parserem strumieniowym {@link QuotationReader}.
+     *
+     * @param currencyName      kod waluty, np. USD
+     * @param startDateAsString data początkowa liczonego okresu
+     * @param endDateAsString   data końcowa liczonego okresu
+     * @return notowania waluty w kolejności dat (tabele bez tej waluty są pomijane)
+     * @throws DatesInWrongOrderException
+     * @throws JAXBException
+     * @throws ParseException
+     */
+    public List<Quotation> getQuotations(String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        return getQuotations(TableType.C, currencyName, startDateAsString, endDateAsString);
+    }
+
+    /**
+     * Notowania waluty z tabel wybranego typu - np. kursy średnie z tabel A lub B. Pliki dir*.txt są wspólne dla
+     * wszystkich typów tabel, więc zapytania o kilka typów z tego samego okresu pobierają każdy indeks tylko raz.
+     *
+     * @param tableType         typ tabel
+     * @param currencyName      kod waluty, np. USD
+     * @param startDateAsString data początkowa liczonego okresu
+     * @param endDateAsString   data końcowa liczonego okresu
+     * @return notowania waluty w kolejności dat (tabele bez tej waluty są pomijane)
+     * @throws DatesInWrongOrderException
+     * @throws JAXBException
+     * @throws ParseException
+     */
+    public List<Quotation> getQuotations(TableType tableType, String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        List<Quotation> quotations = readXMLFiles(getXMLFileNames(tableType, startDateAsString, endDateAsString, null), quotationParser(currencyName));
+        quotations.removeAll(Collections.singleton(null));
+        return quotations;
+    }
+
+    /**
+     * Liczy statystyki kursów waluty bez zapamiętywania notowań. Lista plików dzielona jest na tyle części, ile jest
+     * wątków pobierających - każdy wątek zbiera własne statystyki częściowe, które na końcu są łączone.
+     *
+     * W odróżnieniu od pozostałych metod brak pojedynczych plików (po wyczerpaniu ponowień) nie przerywa obliczeń -
+     * pliki te są zwracane w {@link QuotationStatistics#getFailedFiles()}.
+     *
+     * @param currencyName      kod waluty, np. USD
+     * @param startDateAsString data początkowa liczonego okresu
+     * @param endDateAsString   data końcowa liczonego okresu
+     * @return statystyki kursu kupna i sprzedaży waluty w danym okresie
+     * @throws DatesInWrongOrderException
+     * @throws JAXBException
+     * @throws ParseException
+     */
+    public QuotationStatistics getStatistics(String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        List<String> unreadableIndexFiles = new ArrayList<String>();
+        List<String> xmlFileNames = getXMLFileNames(startDateAsString, endDateAsString, unreadableIndexFiles);
+        final XMLFileParser<Quotation> parser = quotationParser(currencyName);
+        int chunkSize = Math.max(1, (xmlFileNames.size() + fetchConcurrency - 1) / fetchConcurrency);
+
+        List<Future<QuotationStatistics>> pending = new ArrayList<Future<QuotationStatistics>>();
+        for (int from = 0; from < xmlFileNames.size(); from += chunkSize) {
+            final List<String> chunk = xmlFileNames.subList(from, Math.min(xmlFileNames.size(), from + chunkSize));
+            pending.add(fetchExecutor.submit(new Callable<QuotationStatistics>() {
+                @Override
+                public QuotationStatistics call() throws Exception {
+                    QuotationStatistics partial = new QuotationStatistics();
+                    for (String xmlFileName : chunk) {
+                        try {
+                            partial.add(readXMLFile(xmlFileName, parser));
+                        } catch (InterruptedIOException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            metrics.error("Pominięto plik " + xmlFileName, e);
+                            partial.addFailedFile(xmlFileName);
+                        }
+                    }
+                    return partial;
+                }
+            }));
+        }
+
+        QuotationStatistics statistics = new QuotationStatistics();
+        for (String indexFileName : unreadableIndexFiles) {
+            statistics.addFailedFile(indexFileName);
+        }
+        for (QuotationStatistics partial : collectInOrder(pending)) {
+            statistics.merge(partial);
+        }
+        return statistics;
+    }
+
+    /**
+     * Liczy statystyki kursów waluty w oknie przesuwnym o 'windowSize' notowaniach - w jednym przebiegu po tabelach
+     * okresu, czytanych leniwie przez {@link TableIterator}. Wyniki dla kolejnych położeń okna przekazywane są
+     * do 'listener' w miarę odczytywania tabel.
+     *
+     * @param currencyName      kod waluty, np. USD
+     * @param startDateAsString data początkowa okresu
+     * @param endDateAsString   data końcowa okresu
+     * @param windowSize        liczba notowań w oknie
+     * @param listener          odbiorca wyników
+     * @return liczba położeń okna (0, jeśli w okresie było mniej notowań niż 'windowSize')
+     * @throws DatesInWrongOrderException
+     * @throws JAXBException
+     * @throws ParseException
+     */
+    public long getRollingStatistics(String currencyName, String startDateAsString, String endDateAsString, int windowSize, RollingStatistics.Listener listener) throws DatesInWrongOrderException, JAXBException, ParseException {
+        RollingStatistics rolling = new RollingStatistics(windowSize, listener);
+        TableIterator<Quotation> quotations = iterateQuotations(currencyName, startDateAsString, endDateAsString);
+        try {
+            while (quotations.hasNext()) {
+                rolling.add(quotations.next());
+            }
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof JAXBException) {
+                throw (JAXBException) e.getCause();
+            }
+            throw e;
+        } finally {
+            quotations.close();
+        }
+        return rolling.getWindows();
+    }
+
+    /**
+     * Liczy kursy krzyżowe wszystkich par walut ({@link CrossRateMatrix}) w jednym przebiegu po tabelach okresu,
+     * czytanych leniwie przez {@link TableIterator}.
+     *
+     * @param tableType         typ tabel - A (kursy średnie) lub C (średnia z kursów kupna i sprzedaży)
+     * @param currencyNames     kody walut; null - waluty z pierwszej tabeli okresu
+     * @param startDateAsString data początkowa okresu
+     * @param endDateAsString   data końcowa okresu
+     * @return macierz kursów krzyżowych (pusta, jeśli w okresie nie było tabel, a waluty nie zostały podane)
+     * @throws DatesInWrongOrderException
+     * @throws JAXBException
+     * @throws ParseException
+     */
+    public CrossRateMatrix getCrossRates(TableType tableType, List<String> currencyNames, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        TableIterator<List<Quotation>> tables = iterateXMLFiles(getXMLFileNames(tableType, startDateAsString, endDateAsString, null), allQuotationsParser());
+        try {
+            CrossRateMatrix matrix = currencyNames != null ? new CrossRateMatrix(currencyNames) : null;
+            while (tables.hasNext()) {
+                List<Quotation> table = tables.next();
+                if (matrix == null) {
+                    List<String> tableCurrencies = new ArrayList<String>(table.size());
+                    for (Quotation quotation : table) {
+                        tableCurrencies.add(quotation.getKodWaluty());
+                    }
+                    matrix = new CrossRateMatrix(tableCurrencies);
+                }
+                long start = System.nanoTime();
+                matrix.addTable(table);
+                metrics.timer(NBPMetrics.Stage.COMPUTE).recordSince(start);
+            }
+            return matrix != null ? matrix : new CrossRateMatrix(Collections.<String>emptyList());
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof JAXBException) {
+                throw (JAXBException) e.getCause();
+            }
+            throw e;
+        } finally {
+            tables.close();
+        }
+    }
+
+    /**
+     * Liczy statystyki kursów wielu walut w jednym przebiegu po każdej tabeli - każdy plik jest pobierany i parsowany
+     * raz, a jego notowania rozdzielane są do statystyk walut według numeru waluty ({@link CurrencyCodes}).
+     * Podział pracy między wątki i obsługa brakujących plików jak w {@link #getStatistics(String, String, String)}.
+     *
+     * @param currencyNames     kody walut; null - wszystkie waluty występujące w tabelach
+     * @param startDateAsString data początkowa liczonego okresu
+     * @param endDateAsString   data końcowa liczonego okresu
+     * @return statystyki kursu kupna i sprzedaży walut w danym okresie
+     * @throws DatesInWrongOrderException
+     * @throws JAXBException
+     * @throws ParseException
+     */
+    public MultiCurrencyStatistics getStatistics(final Collection<String> currencyNames, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        List<String> unreadableIndexFiles = new ArrayList<String>();
+        List<String> xmlFileNames = getXMLFileNames(startDateAsString, endDateAsString, unreadableIndexFiles);
+        final XMLFileParser<List<Quotation>> parser = allQuotationsParser();
+        int chunkSize = Math.max(1, (xmlFileNames.size() + fetchConcurrency - 1) / fetchConcurrency);
+
+        List<Future<MultiCurrencyStatistics>> pending = new ArrayList<Future<MultiCurrencyStatistics>>();
+        for (int from = 0; from < xmlFileNames.size(); from += chunkSize) {
+            final List<String> chunk = xmlFileNames.subList(from, Math.min(xmlFileNames.size(), from + chunkSize));
+            pending.add(fetchExecutor.submit(new Callable<MultiCurrencyStatistics>() {
+                @Override
+                public MultiCurrencyStatistics call() throws Exception {
+                    MultiCurrencyStatistics partial = new MultiCurrencyStatistics(currencyNames);
+                    for (String xmlFileName : chunk) {
+                        try {
+                            partial.addTable(readXMLFile(xmlFileName, parser));
+                        } catch (InterruptedIOException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            metrics.error("Pominięto plik " + xmlFileName, e);
+                            partial.addFailedFile(xmlFileName);
+                        }
+                    }
+                    return partial;
+                }
+            }));
+        }
+
+        MultiCurrencyStatistics statistics = new MultiCurrencyStatistics(currencyNames);
+        for (String indexFileName : unreadableIndexFiles) {
+            statistics.addFailedFile(indexFileName);
+        }
+        for (MultiCurrencyStatistics partial : collectInOrder(pending)) {
+            statistics.merge(partial);
+        }
+        return statistics;
+    }
+
+    /**
+     * Odpowiada na wiele zapytań naraz. Okresy zapytań są scalane w rozłączne przedziały, dla których wyznaczana jest
+     * jedna lista plików - każdy indeks i każda tabela pobierane są i parsowane tylko raz, niezależnie od tego, ilu
+     * zapytań dotyczą. Tabele czytane są leniwie ({@link TableIterator}), a każda odczytana tabela od razu dopisywana
+     * jest do statystyk wszystkich zapytań, do których okresu należy.
+     *
+     * Tak jak w {@link #getStatistics(String, String, String)} brak pojedynczych plików nie przerywa obliczeń - pliki
+     * te są zwracane w {@link QuotationStatistics#getFailedFiles()} zapytań, których dotyczą.
+     *
+     * @param queries zapytania
+     * @return statystyki w kolejności zapytań
+     */
+    public List<QuotationStatistics> getStatistics(final List<RateQuery> queries) {
+        final List<QuotationStatistics> results = new ArrayList<QuotationStatistics>(queries.size());
+        List<Integer> byStartDate = new ArrayList<Integer>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            results.add(new QuotationStatistics());
+            byStartDate.add(i);
+        }
+        Collections.sort(byStartDate, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return queries.get(a).getStartDate().compareTo(queries.get(b).getStartDate());
+            }
+        });
+
+        //przedziały są rozłączne i uporządkowane, więc lista plików jest w kolejności dat i bez powtórzeń
+        List<String> xmlFileNames = new ArrayList<String>();
+        int from = 0;
+        while (from < byStartDate.size()) {
+            LocalDate start = queries.get(byStartDate.get(from)).getStartDate();
+            LocalDate end = queries.get(byStartDate.get(from)).getEndDate();
+            int to = from + 1;
+            while (to < byStartDate.size() && !queries.get(byStartDate.get(to)).getStartDate().isAfter(end.plusDays(1))) {
+                LocalDate queryEnd = queries.get(byStartDate.get(to)).getEndDate();
+                end = queryEnd.isAfter(end) ? queryEnd : end;
+                to++;
+            }
+            List<String> unreadableIndexFiles = new ArrayList<String>();
+            xmlFileNames.addAll(getXMLFileNames(start, end, unreadableIndexFiles));
+            for (int i = from; i < to; i++) {
+                for (String indexFileName : unreadableIndexFiles) {
+                    results.get(byStartDate.get(i)).addFailedFile(indexFileName);
+                }
+            }
+            from = to;
+        }
+
+        int[] queryCurrencies = new int[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            queryCurrencies[i] = CurrencyCodes.ordinal(queries.get(i).getKodWaluty());
+        }
+
+        final XMLFileParser<List<Quotation>> parser = allQuotationsParser();
+        final Set<String> failedFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        TableIterator<List<Quotation>> tables = new TableIterator<List<Quotation>>(fetchExecutor, xmlFileNames, fetchConcurrency) {
+            @Override
+            List<Quotation> read(String xmlFileName) throws Exception {
+                try {
+                    return readXMLFile(xmlFileName, parser);
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    metrics.error("Pominięto plik " + xmlFileName, e);
+                    failedFiles.add(xmlFileName);
+                    return null;
+                }
+            }
+        };
+        try {
+            while (tables.hasNext()) {
+                List<Quotation> table = tables.next();
+                if (table.isEmpty()) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                LocalDate dataPublikacji = table.get(0).getDataPublikacji();
+                Quotation[] byCurrency = new Quotation[CurrencyCodes.size()];
+                for (Quotation quotation : table) {
+                    byCurrency[quotation.getWaluta()] = quotation;
+                }
+                for (int i = 0; i < queries.size(); i++) {
+                    if (queries.get(i).covers(dataPublikacji)) {
+                        int waluta = queryCurrencies[i];
+                        results.get(i).add(waluta < byCurrency.length ? byCurrency[waluta] : null);
+                    }
+                }
+                metrics.timer(NBPMetrics.Stage.COMPUTE).recordSince(start);
+            }
+        } finally {
+            tables.close();
+        }
+
+        for (String xmlFileName : xmlFileNames) {
+            if (failedFiles.contains(xmlFileName)) {
+                LocalDate dataPublikacji = TableIndex.Entry.parse(xmlFileName.substring(0, xmlFileName.indexOf('.'))).getDataPublikacjiAsDate();
+                for (int i = 0; i < queries.size(); i++) {
+                    if (queries.get(i).covers(dataPublikacji)) {
+                        results.get(i).addFailedFile(xmlFileName);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Pobiera wszystkie tabele z podanego okresu i dopisuje notowania wszystkich walut do {@link RateStore}.
+     *
+     * @param startDateAsString data początkowa okresu
+     * @param endDateAsString   data końcowa okresu
+     * @return liczba wczytanych tabel
+     * @throws DatesInWrongOrderException
+     * @throws JAXBException
+     * @throws ParseException
+     */
+    public int loadRates(String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        return loadRates(startDateAsString, endDateAsString, rateStore);
+    }
+
+    /**
+     * Jak {@link #loadRates(String, String)}, ale notowania dopisywane są do podanego magazynu - np. budowanego od nowa
+     * obok magazynu, z którego w tym czasie korzystają zapytania.
+     */
+    public int loadRates(String startDateAsString, String endDateAsString, RateStore target) throws DatesInWrongOrderException, JAXBException, ParseException {
+        //tabele dopisywane są do magazynu od razu po odczytaniu, więc w pamięci jest naraz tylko kilka z nich
+        TableIterator<List<Quotation>> tables = iterateXMLFiles(getXMLFileNames(startDateAsString, endDateAsString), allQuotationsParser());
+        int count = 0;
+        try {
+            while (tables.hasNext()) {
+                target.addTable(tables.next());
+                count++;
+            }
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof JAXBException) {
+                throw (JAXBException) e.getCause();
+            }
+            throw e;
+        } finally {
+            tables.close();
+        }
+        return count;
+    }
+
+    private XMLFileParser<TabelaKursow> priceTableParser() {
+        return new XMLFileParser<TabelaKursow>("jaxb") {
+            @Override
+            public TabelaKursow parse(InputStream xmlFile) throws JAXBException {
+                //Unmarshaller nie jest bezpieczny wątkowo - każde zadanie tworzy własny, JAXBContext jest współdzielony
+                Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+                return (TabelaKursow) unmarshaller.unmarshal(xmlFile);
+            }
+        };
+    }
+
+    private XMLFileParser<List<Quotation>> allQuotationsParser() {
+        return new XMLFileParser<List<Quotation>>("all") {
+            @Override
+            public List<Quotation> parse(InputStream xmlFile) throws XMLStreamException {
+                return quotationReader.readAll(xmlFile);
+            }
+        };
+    }
+
+    private XMLFileParser<Quotation> quotationParser(final String currencyName) {
+        return new XMLFileParser<Quotation>("quotation:" + currencyName) {
+            @Override
+            public Quotation parse(InputStream xmlFile) throws XMLStreamException {
+                return quotationReader.read(xmlFile, currencyName);
+            }
+        };
+    }
+
+    private List<String> getXMLFileNames(String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, ParseException {
+        return getXMLFileNames(startDateAsString, endDateAsString, null);
+    }
+
+    private List<String> getXMLFileNames(String startDateAsString, String endDateAsString, Collection<String> unreadableIndexFiles) throws DatesInWrongOrderException, ParseException {
+        return getXMLFileNames(TableType.C, startDateAsString, endDateAsString, unreadableIndexFiles);
+    }
+
+    private List<String> getXMLFileNames(TableType tableType, String startDateAsString, String endDateAsString, Collection<String> unreadableIndexFiles) throws DatesInWrongOrderException, ParseException {
+        LocalDate startDate = NBPDates.parseInputDate(startDateAsString);
+        LocalDate endDate = NBPDates.parseInputDate(endDateAsString);
+        if (startDate.isAfter(endDate)) {
             throw new DatesInWrongOrderException(startDate, endDate);
         }
-        List<TabelaKursow> priceTables = new ArrayList<TabelaKursow>();
-        JAXBContext jc = JAXBContext.newInstance(TabelaKursow.class);
-        Unmarshaller unmarshaller = jc.createUnmarshaller();
+        return getXMLFileNames(tableType, startDate, endDate, unreadableIndexFiles);
+    }
+
+    /**
+     * Parser pliku XML. Nazwa parsera jest częścią klucza, pod którym współbieżne odczyty tego samego pliku
+     * są łączone w jeden - parsery o tej samej nazwie muszą zwracać takie same wyniki.
+     */
+    private abstract static class XMLFileParser<T> {
+
+        private final String name;
+
+        XMLFileParser(String name) {
+            this.name = name;
+        }
+
+        abstract T parse(InputStream xmlFile) throws Exception;
+    }
+
+    /**
+     * Pobiera i parsuje podane pliki równolegle.
+     *
+     * @return wyniki parsowania w kolejności nazw plików
+     */
+    private <T> List<T> readXMLFiles(List<String> xmlFileNames, final XMLFileParser<T> parser) throws JAXBException {
+        List<Future<T>> pending = new ArrayList<Future<T>>(xmlFileNames.size());
+        for (final String xmlFileName : xmlFileNames) {
+            pending.add(fetchExecutor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return readXMLFile(xmlFileName, parser);
+                }
+            }));
+        }
+        return collectInOrder(pending);
+    }
+
+    private <T> TableIterator<T> iterateXMLFiles(List<String> xmlFileNames, final XMLFileParser<T> parser) {
+        return new TableIterator<T>(fetchExecutor, xmlFileNames, fetchConcurrency) {
+            @Override
+            T read(String xmlFileName) throws Exception {
+                return readXMLFile(xmlFileName, parser);
+            }
+        };
+    }
+
+    /**
+     * Jeśli ten sam plik jest w tej chwili parsowany tym samym parserem na potrzeby innego zapytania, nie jest pobierany
+     * ani parsowany ponownie - oba zapytania dostają ten sam obiekt wyniku, więc wyniki nie mogą być modyfikowane.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T readXMLFile(final String xmlFileName, final XMLFileParser<T> parser) throws Exception {
+        return (T) xmlFileReads.execute(xmlFileName + '#' + parser.name, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return parseXMLFile(xmlFileName, parser);
+            }
+        });
+    }
+
+    private <T> T parseXMLFile(String xmlFileName, XMLFileParser<T> parser) throws Exception {
+        InputStream xmlFileAsInputStream = fileCache.open(xmlFileName);
+        long start = System.nanoTime();
+        try {
+            T result = parser.parse(xmlFileAsInputStream);
+            metrics.fileParsed();
+            return result;
+        } finally {
+            xmlFileAsInputStream.close();
+            metrics.timer(NBPMetrics.Stage.PARSE).recordSince(start);
+        }
+    }
+
+    /**
+     * Czeka na wyniki zadań w kolejności ich zlecenia. Jeśli któreś zadanie się nie powiedzie, pozostałe są anulowane,
+     * a wyjątek przekazywany jest dalej.
+     */
+    private static <T> List<T> collectInOrder(List<Future<T>> pending) throws JAXBException {
+        List<T> results = new ArrayList<T>(pending.size());
+        try {
+            for (Future<T> future : pending) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            cancelAll(pending);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Przerwano pobieranie tabel kursów", e);
+        } catch (ExecutionException e) {
+            cancelAll(pending);
+            Throwable cause = e.getCause();
+            if (cause instanceof JAXBException) {
+                throw (JAXBException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Nie udało się pobrać tabeli kursów", cause);
+        }
+        return results;
+    }
 
-        List<String> xmlFileNamesToRead = getXMLFileNames(startDate, endDate);
-        for (String xmlFileName : xmlFileNamesToRead) {
-            InputStream xmlFileAsInputStream = readXMLFile(xmlFileName);
-            TabelaKursow tk = (TabelaKursow) unmarshaller.unmarshal(xmlFileAsInputStream);
-            priceTables.add(tk);
+    private static void cancelAll(List<? extends Future<?>> pending) {
+        for (Future<?> future : pending) {
+            future.cancel(true);
         }
-        return priceTables;
     }
 
     /**
@@ -73,89 +676,215 @@ public class NBPDataService {
      * @param startDate początek okresu
      * @param endDate koniec okresu
      * @return lista nazw plików xml które zawierają dane dla zadanego okresu czasu.
+     * @throws IllegalStateException gdy któregoś z indeksów nie udało się odczytać
      */
-    private List<String> getXMLFileNames(Date startDate, Date endDate) {
+    List<String> getXMLFileNames(LocalDate startDate, LocalDate endDate) {
+        return getXMLFileNames(startDate, endDate, null);
+    }
 
+    /**
+     * @param unreadableIndexFiles tu dopisywane są nazwy indeksów, których nie udało się odczytać (tabele z tych
+     *                             okresów są pomijane); null - brak indeksu przerywa zapytanie
+     */
+    private List<String> getXMLFileNames(LocalDate startDate, LocalDate endDate, Collection<String> unreadableIndexFiles) {
+        return getXMLFileNames(TableType.C, startDate, endDate, unreadableIndexFiles);
+    }
+
+    /**
+     * Indeksy zawierają tabele wszystkich typów, więc zapytania o różne typy tabel z tego samego okresu korzystają
+     * z tych samych, raz pobranych plików dir*.txt.
+     *
+     * @param tableType typ szukanych tabel
+     */
+    private List<String> getXMLFileNames(TableType tableType, LocalDate startDate, LocalDate endDate, Collection<String> unreadableIndexFiles) {
+
+        long start = System.nanoTime();
         List<String> xmlFileNames = new ArrayList<String>();
         Set<String> indexFileNamesToRead = getIndexFileNamesToRead(startDate, endDate);
         List<String> daysBetweenDates = getDaysBetweenDates(startDate, endDate);
-        Set<String> fileNamesFromIndexFiles = getFileNamesFromIndexFiles(indexFileNamesToRead);
+        List<TableIndex> tableIndexes = getTableIndexes(indexFileNamesToRead, unreadableIndexFiles);
+        start = metrics.timer(NBPMetrics.Stage.INDEX).recordSince(start);
 
         //Szukamy dla których dat z podanego okresu znajdziemy pliki na serwerze z danymi...
         for (String date : daysBetweenDates) {
-            for (String fileName : fileNamesFromIndexFiles) {
-                if (fileName.endsWith(date)) {
-                    xmlFileNames.add(fileName + ".xml");
+            for (TableIndex tableIndex : tableIndexes) {
+                TableIndex.Entry entry = tableIndex.find(tableType, date);
+                if (entry != null) {
+                    xmlFileNames.add(entry.getXmlFileName());
                 }
             }
         }
+        metrics.timer(NBPMetrics.Stage.MATCH).recordSince(start);
         return xmlFileNames;
     }
 
     /**
+     * Indeksy z lat ubiegłych nie zmieniają się, więc są parsowane tylko raz i trzymane w pamięci.
+     * Indeks bieżącego roku (dir.txt) jest przy każdym zapytaniu uzupełniany o nowe linie - chyba że robi to
+     * w tle {@link IndexRefresher}, wtedy zapytanie korzysta z indeksu w pamięci bez sięgania do serwera.
      *
-     * @param indexFileNamesToRead nazwa pliku z indeksem (dir.txt, dir2015.txt, dir
+     * @param indexFileNamesToRead nazwy plików z indeksem (dir.txt, dir2015.txt, dir2014.txt...)
+     * @param unreadableIndexFiles tu dopisywane są nazwy indeksów, których nie udało się odczytać lub odświeżyć;
+     *                             null - brak indeksu jest błędem (IllegalStateException)
      * @return
      */
-    private Set<String> getFileNamesFromIndexFiles(Set<String> indexFileNamesToRead) {
-        Set<String> fileNames = new HashSet<String>();
+    private List<TableIndex> getTableIndexes(Set<String> indexFileNamesToRead, Collection<String> unreadableIndexFiles) {
+        List<TableIndex> tableIndexes = new ArrayList<TableIndex>();
         for (String indexFileName : indexFileNamesToRead) {
-            fileNames.addAll(readFile(indexFileName));
+            TableIndex tableIndex = tableIndexCache.get(indexFileName);
+            if (tableIndex == null || (!NBPFileCache.isImmutable(indexFileName) && !backgroundRefresh)) {
+                tableIndex = readIndex(indexFileName, unreadableIndexFiles);
+            }
+            if (tableIndex != null) {
+                tableIndexes.add(tableIndex);
+            } else if (unreadableIndexFiles != null) {
+                unreadableIndexFiles.add(indexFileName);
+            } else {
+                throw new IllegalStateException("Nie udało się odczytać indeksu " + indexFileName);
+            }
         }
-        return fileNames;
+        return tableIndexes;
     }
 
-    private Set<String> readFile(String fileName) {
-        Set<String> fileNames = new HashSet<String>();
+    /**
+     * Współbieżne zapytania potrzebujące tego samego indeksu czekają na jeden odczyt zamiast pobierać plik każde osobno.
+     *
+     * Jeśli nie udało się odświeżyć indeksu bieżącego roku, używana jest wersja wczytana wcześniej - może jej brakować
+     * najnowszych tabel, więc indeks jest wtedy zgłaszany w unreadableIndexFiles i w logu.
+     *
+     * @return indeks lub null, jeśli pliku nie udało się odczytać
+     */
+    private TableIndex readIndex(final String indexFileName, Collection<String> unreadableIndexFiles) {
         try {
-            URL url = new URL(HTTP_WWW_NBP_PL_KURSY_XML + fileName);
-            InputStream is = url.openStream();
+            return indexReads.execute(indexFileName, new Callable<TableIndex>() {
+                @Override
+                public TableIndex call() throws Exception {
+                    if (!NBPFileCache.isImmutable(indexFileName)) {
+                        refreshCurrentIndex();
+                        return tableIndexCache.get(indexFileName);
+                    }
+                    TableIndex tableIndex = readFile(indexFileName);
+                    if (tableIndex != null) {
+                        tableIndexCache.put(indexFileName, tableIndex);
+                    }
+                    return tableIndex;
+                }
+            });
+        } catch (Exception e) {
+            TableIndex previous = tableIndexCache.get(indexFileName);
+            if (previous == null) {
+                metrics.error("Odczyt indeksu " + indexFileName, e);
+            } else {
+                metrics.error("Odświeżanie indeksu " + indexFileName + " - użyto wersji wczytanej wcześniej", e);
+                if (unreadableIndexFiles != null) {
+                    unreadableIndexFiles.add(indexFileName);
+                }
+            }
+            return previous;
+        }
+    }
 
-            BufferedReader br = new BufferedReader(new InputStreamReader(is));
-            String read;
+    /**
+     * Odświeża indeks bieżącego roku i od razu pobiera tabele, które się w nim pojawiły od poprzedniego odczytu.
+     *
+     * @return liczba nowych tabel
+     */
+    int refreshAndPrefetch() throws IOException, JAXBException {
+        synchronized (currentIndexLock) {
+            TableIndex previous = tableIndexCache.get(NBPFileCache.CURRENT_INDEX_FILE_NAME);
+            TableIndex.Entry previousEntry = previous == null ? null : previous.getLastEntry(TableType.C);
+            //do magazynu trafiają tylko tabele C - pozostałe typy nie są pobierane z wyprzedzeniem
+            List<TableIndex.Entry> addedEntries = TableIndex.filter(refreshCurrentIndex(), TableType.C);
+            if (!addedEntries.isEmpty()) {
+                prefetchTables(addedEntries, previousEntry == null ? null : previousEntry.getDataPublikacjiAsDate());
+            }
+            return addedEntries.size();
+        }
+    }
 
-            while ((read = br.readLine()) != null) {
-                //interesują nas pliki tylko o nazwie zaczynajacej sie od "c"
-                if (read.startsWith("c")) {
-                    fileNames.add(read);
-                }
+    /**
+     * Sprawdza, czy indeks bieżącego roku (dir.txt) się zmienił, i parsuje tylko linie dopisane od poprzedniego odczytu.
+     *
+     * @return pozycje indeksu dopisane od poprzedniego odczytu (przy pierwszym odczycie - lista pusta)
+     * @throws IOException gdy pliku nie udało się pobrać ani znaleźć w pamięci podręcznej
+     */
+    private List<TableIndex.Entry> refreshCurrentIndex() throws IOException {
+        synchronized (currentIndexLock) {
+            TableIndex previous = tableIndexCache.get(NBPFileCache.CURRENT_INDEX_FILE_NAME);
+            BufferedReader br = new BufferedReader(new InputStreamReader(fileCache.open(NBPFileCache.CURRENT_INDEX_FILE_NAME)));
+            TableIndex current;
+            try {
+                current = previous == null ? TableIndex.parse(br) : previous.extend(br);
+            } finally {
+                br.close();
             }
+            tableIndexCache.put(NBPFileCache.CURRENT_INDEX_FILE_NAME, current);
+            return previous == null ? Collections.<TableIndex.Entry>emptyList() : current.getEntriesAddedSince(previous);
+        }
+    }
 
-            br.close();
-        } catch (Exception e) {
+    /**
+     * Pobiera (do pamięci podręcznej na dysku) i parsuje nowo opublikowane tabele. Jeśli {@link RateStore} zawiera już
+     * wszystkie tabele aż do poprzedniej pozycji indeksu, nowe notowania są do niego dopisywane, a wczytany przedział
+     * przedłużany - zapytania kończące się "dzisiaj" nie muszą wtedy niczego pobierać.
+     *
+     * @param entries      nowe pozycje indeksu, w kolejności z pliku
+     * @param previousDate dzień publikacji pozycji indeksu poprzedzającej nowe pozycje (null, jeśli nie ma takiej)
+     */
+    private void prefetchTables(List<TableIndex.Entry> entries, LocalDate previousDate) throws JAXBException {
+        List<String> xmlFileNames = new ArrayList<String>(entries.size());
+        for (TableIndex.Entry entry : entries) {
+            xmlFileNames.add(entry.getXmlFileName());
+        }
+        List<List<Quotation>> tables = readXMLFiles(xmlFileNames, allQuotationsParser());
 
+        synchronized (rateStore) {
+            int previousDay = previousDate == null ? Integer.MIN_VALUE : (int) previousDate.toEpochDay();
+            for (int i = 0; i < entries.size(); i++) {
+                int loadedFrom = rateStore.getLoadedFromEpochDay();
+                int loadedTo = rateStore.getLoadedToEpochDay();
+                int day = (int) entries.get(i).getDataPublikacjiAsDate().toEpochDay();
+                if (loadedFrom <= loadedTo && previousDay <= loadedTo && day > loadedTo) {
+                    rateStore.addTable(tables.get(i));
+                    rateStore.markLoaded(loadedTo + 1, day);
+                }
+                previousDay = day;
+            }
         }
-        return fileNames;
     }
 
-    private InputStream readXMLFile(String fileName) {
-        InputStream is = null;
+    /**
+     * @return indeks odczytany z pliku lub null, jeśli pliku nie udało się odczytać
+     */
+    private TableIndex readFile(String fileName) {
         try {
-            URL url = new URL(HTTP_WWW_NBP_PL_KURSY_XML + fileName);
-            is = url.openStream();
-        } catch (Exception e) {
+            InputStream is = fileCache.open(fileName);
 
+            BufferedReader br = new BufferedReader(new InputStreamReader(is));
+            try {
+                return TableIndex.parse(br);
+            } finally {
+                br.close();
+            }
+        } catch (Exception e) {
+            metrics.error("Odczyt indeksu " + fileName, e);
+            return null;
         }
-        return is;
     }
 
     /**
      *
-     * @param startdate początek okresu
-     * @param enddate koniec okresu
-     * @return zwraca wszystkie daty z danego okresu w formacie używanym przez serwis NBP
+     * @param startDate początek okresu
+     * @param endDate koniec okresu
+     * @return zwraca wszystkie daty z danego okresu (włącznie z datą końcową) w formacie używanym przez serwis NBP
      */
-    private static List<String> getDaysBetweenDates(Date startdate, Date enddate) {
-        List<String> dates = new ArrayList<String>();
-        Calendar calendar = new GregorianCalendar();
-        calendar.setTime(startdate);
-
-        while (calendar.getTime().before(enddate)) {
-            Date result = calendar.getTime();
-            dates.add(nbpDateFormat.format(result));
-            calendar.add(Calendar.DATE, 1);
+    private static List<String> getDaysBetweenDates(LocalDate startDate, LocalDate endDate) {
+        long startDay = startDate.toEpochDay();
+        long endDay = endDate.toEpochDay();
+        List<String> dates = new ArrayList<String>((int) (endDay - startDay + 1));
+        for (long day = startDay; day <= endDay; day++) {
+            dates.add(NBPDates.toNbpDate(day));
         }
-        dates.add(nbpDateFormat.format(calendar.getTime()));
         return dates;
     }
 
@@ -168,27 +897,18 @@ public class NBPDataService {
      * okres: od 02-02-2016 do 01-05-2016 - czytamy plik dir.txt (jeśli 2016 wciąż jest bieżącym rokiem...)
      * okres: od 02-02-2013 do 01-05-2016 - czytamy pliki dir2013.txt, dir2014.txt, dir2015.txt oraz dir.txt
      *
+     * Lata sprzed {@link #FIRST_INDEX_YEAR} i lata przyszłe są pomijane - nie ma dla nich plików z indeksem.
      */
-    private Set<String> getIndexFileNamesToRead(Date startDate, Date endDate) {
-        Set<String> yearsToReadAsString = new HashSet<String>();
-        Set<String> fileNamesToRead = new HashSet<String>();
-        Calendar calendar = new GregorianCalendar();
-        Integer actualYear = calendar.get(Calendar.YEAR);
-        calendar.setTime(startDate);
-
-        while (calendar.getTime().before(endDate)) {
-            Integer i = calendar.get(Calendar.YEAR);
-            yearsToReadAsString.add(i.toString());
-            calendar.add(Calendar.YEAR, 1);
-        }
+    private Set<String> getIndexFileNamesToRead(LocalDate startDate, LocalDate endDate) {
+        Set<String> fileNamesToRead = new LinkedHashSet<String>();
+        int actualYear = LocalDate.now().getYear();
+        int lastYear = Math.min(endDate.getYear(), actualYear);
 
-        for (String year : yearsToReadAsString) {
-            if (year.equals(actualYear.toString())) {
-                fileNamesToRead.add("dir.txt");
+        for (int year = Math.max(startDate.getYear(), FIRST_INDEX_YEAR); year <= lastYear; year++) {
+            if (year == actualYear) {
+                fileNamesToRead.add(NBPFileCache.CURRENT_INDEX_FILE_NAME);
             } else {
-                StringBuilder sb = new StringBuilder();
-                sb.append("dir").append(year).append(".txt");
-                fileNamesToRead.add(sb.toString());
+                fileNamesToRead.add("dir" + year + ".txt");
             }
         }
         return fileNamesToRead;
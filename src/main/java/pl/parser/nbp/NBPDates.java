@@ -0,0 +1,55 @@
+package pl.parser.nbp;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Operacje na datach używane przy wyszukiwaniu plików NBP. Oparte wyłącznie na niezmiennych typach java.time,
+ * więc mogą być wywoływane jednocześnie z wielu wątków.
+ */
+final class NBPDates {
+
+    private static final DateTimeFormatter INPUT_DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+
+    private NBPDates() {
+    }
+
+    /**
+     * @param date data w formacie yyyy-MM-dd
+     * @throws ParseException gdy tekst nie jest poprawną datą
+     */
+    static LocalDate parseInputDate(String date) throws ParseException {
+        try {
+            return LocalDate.parse(date, INPUT_DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new ParseException("Niepoprawna data: " + date, e.getErrorIndex());
+        }
+    }
+
+    /**
+     * @param nbpDate data w formacie yyMMdd (serwis NBP publikuje tabele od 2002 roku, więc rok to 20yy)
+     */
+    static LocalDate fromNbpDate(String nbpDate) {
+        return LocalDate.of(2000 + digits(nbpDate, 0), digits(nbpDate, 2), digits(nbpDate, 4));
+    }
+
+    private static int digits(String text, int offset) {
+        return Character.digit(text.charAt(offset), 10) * 10 + Character.digit(text.charAt(offset + 1), 10);
+    }
+
+    /**
+     * @return dzień w formacie używanym w nazwach plików NBP (yyMMdd), bez użycia formatera
+     */
+    static String toNbpDate(long epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int year = date.getYear() % 100;
+        int month = date.getMonthValue();
+        int day = date.getDayOfMonth();
+        return new String(new char[]{
+                (char) ('0' + year / 10), (char) ('0' + year % 10),
+                (char) ('0' + month / 10), (char) ('0' + month % 10),
+                (char) ('0' + day / 10), (char) ('0' + day % 10)});
+    }
+}
@@ -0,0 +1,166 @@
+package pl.parser.nbp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+/**
+ * Lokalna pamięć podręczna plików pobieranych z serwisu NBP (dir*.txt oraz c*.xml).
+ * Pliki przechowywane są w katalogu 'nbp.cache.dir' pod swoją oryginalną nazwą.
+ *
+ * Opublikowane tabele kursów oraz indeksy z lat ubiegłych (dirYYYY.txt) nigdy się nie zmieniają, więc
+ * po pierwszym pobraniu są czytane już tylko z dysku. Jedynie indeks bieżącego roku (dir.txt) jest przy każdym
+ * odczycie sprawdzany zapytaniem warunkowym i pobierany ponownie, jeśli się zmienił.
+ * Jeśli serwer NBP jest niedostępny, dir.txt czytany jest z ostatniej zapisanej kopii.
+ *
+ * W trybie offline ('nbp.offline=true') wszystkie pliki czytane są wyłącznie z dysku.
+ *
+ * Jeśli kilka wątków jednocześnie potrzebuje pliku, którego nie ma jeszcze na dysku, pobiera go tylko jeden z nich,
+ * a pozostałe czekają na zakończenie tego pobrania.
+ */
+@Component
+public class NBPFileCache {
+
+    static final String CURRENT_INDEX_FILE_NAME = "dir.txt";
+
+    private static final String VALIDATORS_FILE_SUFFIX = ".validators";
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    @Autowired
+    private NBPHttpClient httpClient;
+
+    @Autowired
+    private NBPMetrics metrics;
+
+    @Value("${nbp.cache.dir:${user.home}/.nbpcc/cache}")
+    private String cacheDirectory;
+
+    @Value("${nbp.offline:false}")
+    private boolean offline;
+
+    private final SingleFlight<String, Boolean> downloads = new SingleFlight<String, Boolean>();
+
+    /**
+     * @param fileName nazwa pliku w serwisie NBP (np. dir2015.txt, c073z070413.xml)
+     * @return strumień z zawartością pliku - z dysku lub świeżo pobrany z serwisu NBP
+     * @throws IOException gdy pliku nie udało się pobrać ani znaleźć w pamięci podręcznej
+     */
+    public InputStream open(final String fileName) throws IOException {
+        final Path cachedFile = Paths.get(cacheDirectory, fileName);
+        boolean cached = Files.isRegularFile(cachedFile);
+
+        boolean downloaded = false;
+        if (offline) {
+            if (!cached) {
+                throw new FileNotFoundException("Tryb offline: brak pliku " + fileName + " w katalogu " + cacheDirectory);
+            }
+        } else if (!cached || !isImmutable(fileName)) {
+            try {
+                downloaded = downloads.execute(fileName, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        //plik mógł zostać pobrany przez inny wątek tuż przed naszym wywołaniem
+                        return (!isImmutable(fileName) || !Files.isRegularFile(cachedFile)) && download(fileName, cachedFile);
+                    }
+                });
+            } catch (IOException e) {
+                if (!cached) {
+                    throw e;
+                }
+                metrics.error("Pobieranie " + fileName + " - użyto kopii z dysku", e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (downloaded) {
+            metrics.cacheMiss();
+        } else {
+            metrics.cacheHit();
+        }
+        return Files.newInputStream(cachedFile);
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * @return true dla plików, które po opublikowaniu nie zmieniają się (wszystko poza dir.txt)
+     */
+    static boolean isImmutable(String fileName) {
+        return !CURRENT_INDEX_FILE_NAME.equals(fileName);
+    }
+
+    /**
+     * Plik zapisywany jest najpierw pod nazwą tymczasową, a dopiero potem przenoszony na właściwe miejsce,
+     * dzięki czemu przerwane pobieranie nie zostawi w katalogu niepełnego pliku.
+     *
+     * Dla plików zmiennych (dir.txt) obok pliku zapisywane są nagłówki ETag / Last-Modified ostatniej odpowiedzi.
+     * Kolejne pobranie jest zapytaniem warunkowym - jeśli plik się nie zmienił, serwer nie przesyła go ponownie.
+     *
+     * @return false, jeśli plik się nie zmienił
+     */
+    private boolean download(String fileName, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        boolean conditional = !isImmutable(fileName);
+        Path validatorsFile = target.resolveSibling(fileName + VALIDATORS_FILE_SUFFIX);
+        NBPHttpClient.Validators validators = conditional ? readValidators(target, validatorsFile) : null;
+
+        Path tmp = Files.createTempFile(target.getParent(), fileName, ".tmp");
+        try {
+            if (!httpClient.download(fileName, tmp, validators)) {
+                return false;
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (conditional) {
+                writeValidators(validatorsFile, validators);
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static NBPHttpClient.Validators readValidators(Path target, Path validatorsFile) throws IOException {
+        Properties properties = new Properties();
+        if (Files.isRegularFile(target) && Files.isRegularFile(validatorsFile)) {
+            InputStream is = Files.newInputStream(validatorsFile);
+            try {
+                properties.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return new NBPHttpClient.Validators(properties.getProperty(ETAG), properties.getProperty(LAST_MODIFIED));
+    }
+
+    private static void writeValidators(Path validatorsFile, NBPHttpClient.Validators validators) throws IOException {
+        Properties properties = new Properties();
+        if (validators.getETag() != null) {
+            properties.setProperty(ETAG, validators.getETag());
+        }
+        if (validators.getLastModified() != null) {
+            properties.setProperty(LAST_MODIFIED, validators.getLastModified());
+        }
+        OutputStream os = Files.newOutputStream(validatorsFile);
+        try {
+            properties.store(os, null);
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package pl.parser.nbp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Wspólna warstwa HTTP dla wszystkich pobrań z serwisu NBP.
+ *
+ * - adres serwisu ('nbp.baseUrl', domyślnie http://www.nbp.pl/kursy/xml/) - pliki pobierane są spod adresu
+ *   baseUrl + nazwa pliku, więc można go zastąpić lustrem lub lokalnym serwerem z danymi testowymi,
+ * - limity czasu nawiązania połączenia i odczytu ('nbp.http.connectTimeout', 'nbp.http.readTimeout', w ms),
+ * - utrzymywanie połączeń (keep-alive) - odpowiedzi są zawsze czytane do końca, dzięki czemu JDK może użyć połączenia
+ *   ponownie; liczbę utrzymywanych połączeń do jednego serwera ustawia właściwość JDK 'http.maxConnections',
+ * - kompresja gzip (nagłówek Accept-Encoding),
+ * - zapytania warunkowe (If-None-Match / If-Modified-Since) dla plików, które mogą się zmieniać,
+ * - ponawianie nieudanych pobrań ('nbp.http.retries' razy) z losowym, wykładniczo rosnącym odstępem
+ *   ('nbp.http.backoff', 'nbp.http.maxBackoff', w ms) - tylko dla błędów przejściowych: przekroczenia czasu,
+ *   zerwanego połączenia, odpowiedzi 5xx i 429; odpowiedź 404 nie jest ponawiana,
+ * - opcjonalne zapytania zapasowe ('nbp.http.hedge=true'): jeśli odpowiedź nie nadejdzie w czasie typowym dla
+ *   95% dotychczasowych pobrań, wysyłane jest drugie zapytanie o ten sam plik i używana jest ta odpowiedź,
+ *   która przyjdzie pierwsza. Do czasu zebrania wystarczającej liczby pomiarów używane jest 'nbp.http.hedgeDelay'.
+ */
+@Component
+public class NBPHttpClient {
+
+    private static final String USER_AGENT = "nbpcc";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    @Autowired
+    private NBPMetrics metrics;
+
+    @Value("${nbp.baseUrl:http://www.nbp.pl/kursy/xml/}")
+    private String baseUrl;
+
+    @Value("${nbp.http.connectTimeout:5000}")
+    private int connectTimeout;
+
+    @Value("${nbp.http.readTimeout:15000}")
+    private int readTimeout;
+
+    @Value("${nbp.http.retries:2}")
+    private int retries;
+
+    @Value("${nbp.http.backoff:200}")
+    private long backoff;
+
+    @Value("${nbp.http.maxBackoff:5000}")
+    private long maxBackoff;
+
+    @Value("${nbp.http.hedge:false}")
+    private boolean hedge;
+
+    @Value("${nbp.http.hedgeDelay:1000}")
+    private long hedgeDelay;
+
+    private ExecutorService hedgeExecutor;
+
+    @PostConstruct
+    public void init() {
+        if (!baseUrl.endsWith("/")) {
+            baseUrl = baseUrl + "/";
+        }
+        if (hedge) {
+            hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "nbp-http-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Pobiera plik i zapisuje go w pliku docelowym.
+     *
+     * @param fileName   nazwa pliku w serwisie NBP
+     * @param target     plik, do którego zostanie zapisana zawartość (nadpisywany)
+     * @param validators dane z poprzedniego pobrania do zapytania warunkowego (null - zapytanie bezwarunkowe);
+     *                   po pobraniu uzupełniane wartościami z odpowiedzi serwera
+     * @return false, jeśli serwer odpowiedział, że plik się nie zmienił (plik docelowy nie jest wtedy zapisywany)
+     * @throws IOException gdy pobranie nie powiodło się mimo ponowień (w tym FileNotFoundException dla odpowiedzi 404)
+     */
+    public boolean download(String fileName, Path target, Validators validators) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return hedge ? downloadHedged(fileName, target, validators) : new Attempt(fileName, target, validators).call();
+            } catch (IOException e) {
+                if (attempt >= retries || !isRetryable(e)) {
+                    throw e;
+                }
+                metrics.retriedRequest();
+                metrics.error("Ponowienie pobrania " + fileName, e);
+                sleepBeforeRetry(attempt);
+            }
+        }
+    }
+
+    /**
+     * Błędy przejściowe - takie, po których ponowienie zapytania ma szansę się udać.
+     */
+    static boolean isRetryable(IOException e) {
+        if (e instanceof FileNotFoundException) {
+            return false;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            //przerwanie wątku, a nie przekroczenie czasu odczytu
+            return false;
+        }
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).getStatus();
+            return status >= 500 || status == HTTP_TOO_MANY_REQUESTS;
+        }
+        return true;
+    }
+
+    /**
+     * Losowy odstęp z przedziału [0, backoff * 2^attempt] ("full jitter") - klienci, którym nie udało się pobrać pliku
+     * w tym samym momencie, nie ponawiają zapytań równocześnie.
+     */
+    private void sleepBeforeRetry(int attempt) throws InterruptedIOException {
+        long limit = Math.min(maxBackoff, backoff << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Przerwano oczekiwanie na ponowienie pobrania");
+        }
+    }
+
+    /**
+     * Wysyła zapytanie, a jeśli odpowiedź nie nadejdzie w czasie {@link #getHedgeDelayMillis()}, także zapytanie
+     * zapasowe. Każde zapytanie zapisuje odpowiedź do własnego pliku tymczasowego; wygrywa pierwsza udana odpowiedź,
+     * a druga jest przerywana.
+     */
+    private boolean downloadHedged(String fileName, Path target, Validators validators) throws IOException {
+        Attempt primary = new Attempt(fileName, target.resolveSibling(target.getFileName() + ".1"), copyOf(validators));
+        Attempt backup = new Attempt(fileName, target.resolveSibling(target.getFileName() + ".2"), copyOf(validators));
+        CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(hedgeExecutor);
+        Future<Boolean> primaryFuture = completion.submit(primary);
+        Future<Boolean> backupFuture = null;
+        try {
+            Future<Boolean> done = completion.poll(getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            if (done == null) {
+                backupFuture = completion.submit(backup);
+                metrics.hedgedRequest();
+            }
+            int running = backupFuture == null ? 1 : 2;
+            IOException failure = null;
+            for (; running > 0; running--) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                Attempt winner = done == primaryFuture ? primary : backup;
+                try {
+                    boolean changed = done.get();
+                    (winner == primary ? backup : primary).abort();
+                    if (changed) {
+                        Files.move(winner.target, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    copyInto(winner.validators, validators);
+                    return changed;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Przerwano pobieranie pliku " + fileName);
+        } finally {
+            primary.abort();
+            primaryFuture.cancel(true);
+            backup.abort();
+            if (backupFuture != null) {
+                backupFuture.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return 95. percentyl czasu pobrania jednego pliku lub 'nbp.http.hedgeDelay', dopóki pomiarów jest za mało
+     */
+    long getHedgeDelayMillis() {
+        StageTimer downloads = metrics.timer(NBPMetrics.Stage.DOWNLOAD);
+        if (downloads.getCount() < MIN_HEDGE_SAMPLES) {
+            return hedgeDelay;
+        }
+        return Math.max(1, (long) Math.ceil(downloads.getP95Millis()));
+    }
+
+    private static Validators copyOf(Validators validators) {
+        return validators == null ? null : new Validators(validators.getETag(), validators.getLastModified());
+    }
+
+    private static void copyInto(Validators from, Validators to) {
+        if (from != null && to != null) {
+            to.setETag(from.getETag());
+            to.setLastModified(from.getLastModified());
+        }
+    }
+
+    /**
+     * Jedno zapytanie HTTP. Może zostać przerwane z innego wątku przez {@link #abort()} - zamknięcie połączenia
+     * przerywa także zablokowany odczyt z gniazda. Przerwane zapytanie usuwa swój plik docelowy i nie jest
+     * wliczane do czasów pobrań.
+     */
+    private class Attempt implements Callable<Boolean> {
+
+        private final String fileName;
+        private final Path target;
+        private final Validators validators;
+        private volatile HttpURLConnection connection;
+        private volatile boolean aborted;
+        private volatile boolean completed;
+
+        Attempt(String fileName, Path target, Validators validators) {
+            this.fileName = fileName;
+            this.target = target;
+            this.validators = validators;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            long start = System.nanoTime();
+            try {
+                boolean changed = execute();
+                completed = true;
+                return changed;
+            } finally {
+                if (aborted) {
+                    Files.deleteIfExists(target);
+                } else {
+                    metrics.timer(NBPMetrics.Stage.DOWNLOAD).recordSince(start);
+                }
+            }
+        }
+
+        /**
+         * Wywoływane także dla zakończonego zapytania - wtedy nie zamyka połączenia (wróciło już do puli keep-alive),
+         * a jedynie usuwa niepotrzebny plik tymczasowy.
+         */
+        void abort() throws IOException {
+            aborted = true;
+            HttpURLConnection c = connection;
+            if (c != null && !completed) {
+                c.disconnect();
+            }
+            Files.deleteIfExists(target);
+        }
+
+        private boolean execute() throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + fileName).openConnection();
+            this.connection = connection;
+            if (aborted) {
+                throw new InterruptedIOException("Zapytanie o plik " + fileName + " zostało przerwane");
+            }
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            if (validators != null) {
+                if (validators.getETag() != null) {
+                    connection.setRequestProperty("If-None-Match", validators.getETag());
+                }
+                if (validators.getLastModified() != null) {
+                    connection.setRequestProperty("If-Modified-Since", validators.getLastModified());
+                }
+            }
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                drain(connection.getInputStream());
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                drain(connection.getErrorStream());
+                String message = "Serwer NBP zwrócił kod " + status + " dla pliku " + fileName;
+                throw status == HttpURLConnection.HTTP_NOT_FOUND ? new FileNotFoundException(message) : new HttpStatusException(status, message);
+            }
+
+            InputStream body = connection.getInputStream();
+            try {
+                InputStream content = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(body) : body;
+                metrics.addBytesFetched(Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING));
+                drain(body);
+            } finally {
+                body.close();
+            }
+            if (validators != null) {
+                validators.setETag(connection.getHeaderField("ETag"));
+                validators.setLastModified(connection.getHeaderField("Last-Modified"));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Doczytuje resztę odpowiedzi - tylko w pełni przeczytane połączenie wraca do puli keep-alive.
+     */
+    private static void drain(InputStream is) throws IOException {
+        if (is == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (is.read(buffer) >= 0) {
+                //pomijamy
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Odpowiedź serwera z kodem innym niż 200, 304 i 404.
+     */
+    public static class HttpStatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        public HttpStatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Wartości nagłówków ETag i Last-Modified z ostatniej odpowiedzi serwera dla danego pliku.
+     */
+    public static class Validators {
+
+        private String eTag;
+        private String lastModified;
+
+        public Validators(String eTag, String lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public void setETag(String eTag) {
+            this.eTag = eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(String lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package pl.parser.nbp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pomiary czasu poszczególnych etapów obsługi zapytania oraz liczniki pobranych bajtów, sparsowanych plików,
+ * trafień w pamięć podręczną i błędów (także tych, po których przetwarzanie jest kontynuowane).
+ *
+ * Pomiary publikowane są jako MBeany JMX: 'pl.parser.nbp:type=Metrics' oraz 'pl.parser.nbp:type=Stage,name=...'
+ * dla każdego etapu. Jeśli ustawione jest 'nbp.metrics.logInterval' (w sekundach), podsumowanie jest dodatkowo
+ * okresowo zapisywane w logu.
+ */
+@Component
+public class NBPMetrics implements NBPMetricsMBean {
+
+    private static final Log LOG = LogFactory.getLog(NBPMetrics.class);
+    private static final String DOMAIN = "pl.parser.nbp";
+    private static final int MAX_REPORTED_CONTEXTS = 1000;
+
+    /**
+     * Etapy obsługi zapytania.
+     */
+    public enum Stage {
+        /** pobranie i sparsowanie plików dir*.txt */
+        INDEX("index"),
+        /** wybór plików z tabelami dla dni z okresu */
+        MATCH("match"),
+        /** pobranie pliku z serwisu NBP */
+        DOWNLOAD("download"),
+        /** parsowanie pliku z tabelą kursów */
+        PARSE("parse"),
+        /** obliczenie statystyk z gotowych notowań */
+        COMPUTE("compute"),
+        /** całe zapytanie */
+        QUERY("query");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    @Value("${nbp.metrics.logInterval:0}")
+    private long logInterval;
+
+    private final Map<Stage, StageTimer> timers = new EnumMap<Stage, StageTimer>(Stage.class);
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private final AtomicLong filesDownloaded = new AtomicLong();
+    private final AtomicLong filesParsed = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong retriedRequests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile String lastError;
+    private final Set<String> reportedContexts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+    private ScheduledExecutorService logScheduler;
+
+    public NBPMetrics() {
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, new StageTimer(stage.getLabel()));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName(DOMAIN + ":type=Metrics"), this);
+            for (StageTimer timer : timers.values()) {
+                register(server, new ObjectName(DOMAIN + ":type=Stage,name=" + timer.getName()), timer);
+            }
+        } catch (JMException e) {
+            LOG.warn("Nie udało się zarejestrować metryk w JMX", e);
+        }
+
+        if (logInterval > 0) {
+            logScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "nbp-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            logScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    LOG.info(getSummary());
+                }
+            }, logInterval, logInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Drugi kontekst Springa w tej samej maszynie wirtualnej przejmuje nazwy JMX po poprzednim.
+     */
+    private void register(MBeanServer server, ObjectName name, Object mbean) throws JMException {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(mbean, name);
+        registeredNames.add(name);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (logScheduler != null) {
+            logScheduler.shutdownNow();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                //już wyrejestrowany (np. przez nowszy kontekst)
+            }
+        }
+        registeredNames.clear();
+    }
+
+    public StageTimer timer(Stage stage) {
+        return timers.get(stage);
+    }
+
+    public void addBytesFetched(long bytes) {
+        bytesFetched.addAndGet(bytes);
+        filesDownloaded.incrementAndGet();
+    }
+
+    public void fileParsed() {
+        filesParsed.incrementAndGet();
+    }
+
+    public void cacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    public void retriedRequest() {
+        retriedRequests.incrementAndGet();
+    }
+
+    public void hedgedRequest() {
+        hedgedRequests.incrementAndGet();
+    }
+
+    /**
+     * Zapisuje błąd, po którym przetwarzanie jest kontynuowane (np. brak pliku indeksu, użycie nieaktualnej kopii
+     * z dysku). Pierwsze wystąpienie błędu w danym kontekście trafia do logu jako ostrzeżenie, kolejne - na poziomie
+     * debug, żeby powtarzający się błąd (np. przy każdym odświeżeniu indeksu) nie zalewał logu. Licznik obejmuje
+     * wszystkie wystąpienia.
+     */
+    public void error(String context, Exception e) {
+        errors.incrementAndGet();
+        lastError = context + ": " + e;
+        if (reportedContexts.size() >= MAX_REPORTED_CONTEXTS) {
+            //zbiór nie rośnie bez końca - po wyczyszczeniu powtarzające się błędy zostaną zgłoszone ponownie
+            reportedContexts.clear();
+        }
+        if (reportedContexts.add(context)) {
+            LOG.warn(context, e);
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug(context, e);
+        }
+    }
+
+    @Override
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    @Override
+    public long getFilesDownloaded() {
+        return filesDownloaded.get();
+    }
+
+    @Override
+    public long getFilesParsed() {
+        return filesParsed.get();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public long getRetriedRequests() {
+        return retriedRequests.get();
+    }
+
+    @Override
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("bytes=").append(getBytesFetched())
+                .append(" downloaded=").append(getFilesDownloaded())
+                .append(" parsed=").append(getFilesParsed())
+                .append(" cacheHits=").append(getCacheHits())
+                .append(" cacheMisses=").append(getCacheMisses())
+                .append(" retried=").append(getRetriedRequests())
+                .append(" hedged=").append(getHedgedRequests())
+                .append(" errors=").append(getErrors());
+        for (StageTimer timer : timers.values()) {
+            summary.append(" | ").append(timer);
+        }
+        return summary.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (StageTimer timer : timers.values()) {
+            timer.reset();
+        }
+        bytesFetched.set(0);
+        filesDownloaded.set(0);
+        filesParsed.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        retriedRequests.set(0);
+        hedgedRequests.set(0);
+        errors.set(0);
+        lastError = null;
+    }
+}
@@ -0,0 +1,29 @@
+package pl.parser.nbp;
+
+/**
+ * Interfejs JMX dla {@link NBPMetrics}.
+ */
+public interface NBPMetricsMBean {
+
+    long getBytesFetched();
+
+    long getFilesDownloaded();
+
+    long getFilesParsed();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getRetriedRequests();
+
+    long getHedgedRequests();
+
+    long getErrors();
+
+    String getLastError();
+
+    String getSummary();
+
+    void reset();
+}
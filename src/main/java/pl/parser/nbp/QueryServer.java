@@ -0,0 +1,177 @@
+package pl.parser.nbp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tryb serwera - zamiast jednorazowego uruchomienia dla jednego zapytania aplikacja działa stale i odpowiada na
+ * zapytania HTTP, dzięki czemu wczytane tabele, indeksy i pamięć podręczna pozostają w pamięci między zapytaniami.
+ *
+ * GET /statistics?currency=USD&amp;start=2013-01-28&amp;end=2013-01-31 zwraca JSON postaci:
+ * {"currency":"USD","start":"2013-01-28","end":"2013-01-31","count":4,"buyMean":3.0963,"sellStdDev":0.0121}
+ * (buyMean / sellStdDev mają wartość null, jeśli w okresie nie było notowań waluty).
+ *
+ * Zapytania obsługiwane są równolegle przez pulę 'nbp.server.threads' wątków.
+ */
+@Component
+public class QueryServer {
+
+    static final String STATISTICS_PATH = "/statistics";
+
+    @Autowired
+    private RateQueryService rateQueryService;
+
+    @Value("${nbp.server.threads:16}")
+    private int threads;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Serwer już działa");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext(STATISTICS_PATH, new StatisticsHandler());
+        server.start();
+    }
+
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private class StatisticsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405, error("Obsługiwana jest tylko metoda GET"));
+                    return;
+                }
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                String currency = parameters.get("currency");
+                String start = parameters.get("start");
+                String end = parameters.get("end");
+                if (currency == null || start == null || end == null) {
+                    respond(exchange, 400, error("Wymagane parametry: currency, start, end"));
+                    return;
+                }
+                QuotationStatistics statistics = rateQueryService.getStatistics(currency, start, end);
+                respond(exchange, 200, toJson(currency, start, end, statistics));
+            } catch (DatesInWrongOrderException e) {
+                respond(exchange, 400, error(e.getMessage()));
+            } catch (ParseException e) {
+                respond(exchange, 400, error(e.getMessage()));
+            } catch (Exception e) {
+                respond(exchange, 500, error(String.valueOf(e.getMessage())));
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    static String toJson(String currency, String start, String end, QuotationStatistics statistics) {
+        StatisticsAccumulator buy = statistics.getBuy();
+        StatisticsAccumulator sell = statistics.getSell();
+        return "{\"currency\":" + quote(currency)
+                + ",\"start\":" + quote(start)
+                + ",\"end\":" + quote(end)
+                + ",\"count\":" + buy.getCount()
+                + ",\"buyMean\":" + (buy.isEmpty() ? "null" : format(buy.getMean()))
+                + ",\"sellStdDev\":" + (sell.isEmpty() ? "null" : format(sell.getStandardDeviation()))
+                + ",\"failedFiles\":" + toJsonArray(statistics.getFailedFiles())
+                + "}";
+    }
+
+    private static String toJsonArray(List<String> values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (String value : values) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(quote(value));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream os = exchange.getResponseBody();
+        try {
+            os.write(body);
+        } finally {
+            os.close();
+        }
+    }
+}
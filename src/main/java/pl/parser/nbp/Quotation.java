@@ -0,0 +1,76 @@
+package pl.parser.nbp;
+
+import java.time.LocalDate;
+
+/**
+ * Notowanie jednej waluty z jednej tabeli kursów - tylko te dane, które są potrzebne do obliczeń.
+ * Tabele C i H zawierają kursy kupna i sprzedaży, tabele A i B - kurs średni; kursy, których tabela nie zawiera, są równe 0.
+ * Kursy przechowywane są jako liczby stałoprzecinkowe w jednostkach 1/{@link RateParser#SCALE} złotego.
+ */
+public class Quotation {
+
+    private final LocalDate dataNotowania;
+    private final LocalDate dataPublikacji;
+    private final String kodWaluty;
+    private final int waluta;
+    private final int przelicznik;
+    private final long kursKupna;
+    private final long kursSprzedazy;
+    private final long kursSredni;
+
+    public Quotation(LocalDate dataNotowania, LocalDate dataPublikacji, String kodWaluty, int przelicznik, long kursKupna, long kursSprzedazy) {
+        this(dataNotowania, dataPublikacji, kodWaluty, przelicznik, kursKupna, kursSprzedazy, 0);
+    }
+
+    public Quotation(LocalDate dataNotowania, LocalDate dataPublikacji, String kodWaluty, int przelicznik, long kursKupna, long kursSprzedazy, long kursSredni) {
+        this.dataNotowania = dataNotowania;
+        this.dataPublikacji = dataPublikacji;
+        this.kodWaluty = kodWaluty;
+        this.waluta = CurrencyCodes.ordinal(kodWaluty);
+        this.przelicznik = przelicznik;
+        this.kursKupna = kursKupna;
+        this.kursSprzedazy = kursSprzedazy;
+        this.kursSredni = kursSredni;
+    }
+
+    public LocalDate getDataNotowania() {
+        return dataNotowania;
+    }
+
+    /**
+     * @return dzień publikacji tabeli - ten sam, który występuje w nazwie pliku i po którym wybierane są tabele z okresu
+     */
+    public LocalDate getDataPublikacji() {
+        return dataPublikacji;
+    }
+
+    public String getKodWaluty() {
+        return kodWaluty;
+    }
+
+    /**
+     * @return numer kodu waluty w {@link CurrencyCodes}
+     */
+    public int getWaluta() {
+        return waluta;
+    }
+
+    public int getPrzelicznik() {
+        return przelicznik;
+    }
+
+    public long getKursKupna() {
+        return kursKupna;
+    }
+
+    public long getKursSprzedazy() {
+        return kursSprzedazy;
+    }
+
+    /**
+     * @return kurs średni z tabeli A lub B (0 dla tabel C i H)
+     */
+    public long getKursSredni() {
+        return kursSredni;
+    }
+}
@@ -0,0 +1,151 @@
+package pl.parser.nbp;
+
+import org.springframework.stereotype.Component;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Strumieniowy (StAX) odczyt pliku z tabelą kursów, alternatywny dla pełnego unmarshallingu JAXB do {@link TabelaKursow}.
+ * Obsługuje tabele wszystkich typów - kursy kupna i sprzedaży (C, H) oraz kurs średni (A, B); tabele A i B nie mają
+ * daty notowania, za którą przyjmowana jest wtedy data publikacji.
+ * Z dokumentu odczytywane są tylko daty notowania i publikacji oraz pozycja szukanej waluty - pozostałe pozycje są pomijane bez
+ * tworzenia dla nich obiektów, a czytanie strumienia kończy się zaraz po znalezieniu szukanej pozycji.
+ */
+@Component
+public class QuotationReader {
+
+    private static final String DATA_NOTOWANIA = "data_notowania";
+    private static final String DATA_PUBLIKACJI = "data_publikacji";
+    private static final String POZYCJA = "pozycja";
+    private static final String PRZELICZNIK = "przelicznik";
+    private static final String KOD_WALUTY = "kod_waluty";
+    private static final String KURS_KUPNA = "kurs_kupna";
+    private static final String KURS_SPRZEDAZY = "kurs_sprzedazy";
+    private static final String KURS_SREDNI = "kurs_sredni";
+
+    private final XMLInputFactory inputFactory;
+
+    public QuotationReader() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * @param xml         zawartość pliku z tabelą, np. cXXXzYYMMDD.xml
+     * @param kodWaluty   kod szukanej waluty, np. USD
+     * @return notowanie szukanej waluty lub null, jeśli tabela go nie zawiera
+     * @throws XMLStreamException gdy dokument nie jest poprawnym plikiem XML
+     */
+    public Quotation read(InputStream xml, String kodWaluty) throws XMLStreamException {
+        List<Quotation> found = new ArrayList<Quotation>(1);
+        read(xml, kodWaluty, found);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * @param xml zawartość pliku z tabelą, np. cXXXzYYMMDD.xml
+     * @return notowania wszystkich walut z tabeli, w kolejności z pliku
+     * @throws XMLStreamException gdy dokument nie jest poprawnym plikiem XML
+     */
+    public List<Quotation> readAll(InputStream xml) throws XMLStreamException {
+        List<Quotation> quotations = new ArrayList<Quotation>();
+        read(xml, null, quotations);
+        return quotations;
+    }
+
+    /**
+     * @param kodWaluty kod szukanej waluty lub null, jeśli czytamy wszystkie pozycje
+     */
+    private void read(InputStream xml, String kodWaluty, List<Quotation> quotations) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(xml);
+        try {
+            LocalDate dataNotowania = null;
+            LocalDate dataPublikacji = null;
+            boolean matching = false;
+            String kod = null;
+            String przelicznik = null;
+            long kursKupna = 0;
+            long kursSprzedazy = 0;
+            long kursSredni = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (DATA_NOTOWANIA.equals(name)) {
+                        dataNotowania = LocalDate.parse(reader.getElementText().trim());
+                    } else if (DATA_PUBLIKACJI.equals(name)) {
+                        dataPublikacji = LocalDate.parse(reader.getElementText().trim());
+                    } else if (POZYCJA.equals(name)) {
+                        matching = false;
+                        przelicznik = null;
+                        kursKupna = 0;
+                        kursSprzedazy = 0;
+                        kursSredni = 0;
+                    } else if (PRZELICZNIK.equals(name)) {
+                        przelicznik = reader.getElementText();
+                    } else if (KOD_WALUTY.equals(name)) {
+                        kod = reader.getElementText().trim();
+                        matching = kodWaluty == null || kodWaluty.equals(kod);
+                    } else if (matching && KURS_KUPNA.equals(name)) {
+                        kursKupna = readRate(reader);
+                    } else if (matching && KURS_SPRZEDAZY.equals(name)) {
+                        kursSprzedazy = readRate(reader);
+                    } else if (matching && KURS_SREDNI.equals(name)) {
+                        kursSredni = readRate(reader);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && matching && POZYCJA.equals(reader.getLocalName())) {
+                    quotations.add(new Quotation(dataNotowania != null ? dataNotowania : dataPublikacji, dataPublikacji, kod,
+                            parsePrzelicznik(przelicznik), kursKupna, kursSprzedazy, kursSredni));
+                    if (kodWaluty != null) {
+                        //szukana pozycja odczytana - reszty dokumentu nie czytamy
+                        return;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parsuje kurs bezpośrednio z bufora znaków parsera, bez tworzenia obiektu String.
+     * Kończy na znaczniku zamykającym element.
+     */
+    private static long readRate(XMLStreamReader reader) throws XMLStreamException {
+        long rate = 0;
+        boolean found = false;
+        int event;
+        while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.CHARACTERS) {
+                if (found) {
+                    throw new XMLStreamException("Kurs podzielony na kilka fragmentów tekstu", reader.getLocation());
+                }
+                try {
+                    rate = RateParser.parse(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                } catch (NumberFormatException e) {
+                    throw new XMLStreamException(e.getMessage(), reader.getLocation(), e);
+                }
+                found = true;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                throw new XMLStreamException("Nieoczekiwany element w kursie waluty", reader.getLocation());
+            }
+        }
+        if (!found) {
+            throw new XMLStreamException("Brak wartości kursu", reader.getLocation());
+        }
+        return rate;
+    }
+
+    private static int parsePrzelicznik(String przelicznik) {
+        return przelicznik == null ? 1 : Integer.parseInt(przelicznik.trim());
+    }
+}
@@ -0,0 +1,69 @@
+package pl.parser.nbp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statystyki kursu kupna i kursu sprzedaży jednej waluty, zbierane notowanie po notowaniu.
+ *
+ * Jeśli części plików z okresu nie udało się pobrać, statystyki liczone są z pozostałych, a nazwy brakujących plików
+ * dostępne są w {@link #getFailedFiles()}.
+ */
+public class QuotationStatistics {
+
+    private final StatisticsAccumulator buy;
+    private final StatisticsAccumulator sell;
+    private final List<String> failedFiles = new ArrayList<String>();
+
+    public QuotationStatistics() {
+        this(new StatisticsAccumulator(), new StatisticsAccumulator());
+    }
+
+    public QuotationStatistics(StatisticsAccumulator buy, StatisticsAccumulator sell) {
+        this.buy = buy;
+        this.sell = sell;
+    }
+
+    /**
+     * @param quotation notowanie waluty; null (brak waluty w tabeli) jest pomijany
+     */
+    public void add(Quotation quotation) {
+        if (quotation != null) {
+            buy.add(quotation.getKursKupna());
+            sell.add(quotation.getKursSprzedazy());
+        }
+    }
+
+    public void merge(QuotationStatistics other) {
+        buy.merge(other.buy);
+        sell.merge(other.sell);
+        failedFiles.addAll(other.failedFiles);
+    }
+
+    /**
+     * @param fileName plik (indeks lub tabela kursów), którego nie udało się pobrać - jego notowania nie są uwzględnione
+     */
+    public void addFailedFile(String fileName) {
+        failedFiles.add(fileName);
+    }
+
+    public List<String> getFailedFiles() {
+        return Collections.unmodifiableList(failedFiles);
+    }
+
+    /**
+     * @return true, jeśli statystyki uwzględniają wszystkie tabele z okresu
+     */
+    public boolean isComplete() {
+        return failedFiles.isEmpty();
+    }
+
+    public StatisticsAccumulator getBuy() {
+        return buy;
+    }
+
+    public StatisticsAccumulator getSell() {
+        return sell;
+    }
+}
@@ -0,0 +1,82 @@
+package pl.parser.nbp;
+
+/**
+ * Parsowanie kursów zapisanych w plikach NBP (np. "4,1234") do liczby stałoprzecinkowej - kursu wyrażonego
+ * w dziesięciotysięcznych częściach złotego. Działa bezpośrednio na tablicy znaków, bez tworzenia pośrednich
+ * obiektów String i bez wyrażeń regularnych. Dzięki temu dalsze obliczenia wykonywane są na dokładnych wartościach.
+ */
+public final class RateParser {
+
+    /**
+     * Liczba jednostek stałoprzecinkowych w jednym złotym.
+     */
+    public static final long SCALE = 10000;
+
+    private static final int FRACTION_DIGITS = 4;
+
+    private RateParser() {
+    }
+
+    public static long parse(CharSequence rate) {
+        char[] chars = new char[rate.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = rate.charAt(i);
+        }
+        return parse(chars, 0, chars.length);
+    }
+
+    /**
+     * Akceptuje przecinek lub kropkę dziesiętną i najwyżej 4 cyfry po przecinku. Białe znaki na początku i końcu
+     * są pomijane.
+     *
+     * @return kurs w jednostkach 1/{@link #SCALE}
+     * @throws NumberFormatException gdy tekst nie jest poprawnym kursem
+     */
+    public static long parse(char[] chars, int start, int length) {
+        int end = start + length;
+        while (start < end && Character.isWhitespace(chars[start])) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(chars[end - 1])) {
+            end--;
+        }
+        if (start == end) {
+            throw new NumberFormatException("Pusty kurs");
+        }
+        boolean negative = chars[start] == '-';
+        int i = negative ? start + 1 : start;
+
+        long value = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                if (fractionDigits >= 0 && ++fractionDigits > FRACTION_DIGITS) {
+                    throw invalid(chars, start, end);
+                }
+                value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+                digits++;
+            } else if ((c == ',' || c == '.') && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                throw invalid(chars, start, end);
+            }
+        }
+        if (digits == 0) {
+            throw invalid(chars, start, end);
+        }
+        for (int f = Math.max(fractionDigits, 0); f < FRACTION_DIGITS; f++) {
+            value = Math.multiplyExact(value, 10);
+        }
+        return negative ? -value : value;
+    }
+
+    public static double toDouble(long rate) {
+        return (double) rate / SCALE;
+    }
+
+    private static NumberFormatException invalid(char[] chars, int start, int end) {
+        return new NumberFormatException("Niepoprawny kurs: " + new String(chars, start, end - start));
+    }
+}
@@ -0,0 +1,72 @@
+package pl.parser.nbp;
+
+import java.util.Arrays;
+
+/**
+ * Indeks sum prefiksowych dla jednego szeregu kursów: dla każdego notowania pamiętana jest suma oraz suma kwadratów
+ * kursów kupna i sprzedaży od początku szeregu. Średnia i odchylenie standardowe w dowolnym przedziale dat liczone są
+ * w czasie stałym - z różnicy dwóch sum, po dwóch wyszukiwaniach binarnych w kolumnie dat.
+ *
+ * Kursy są stałoprzecinkowe, więc sumy są dokładne i odejmowanie ich nie powoduje utraty precyzji.
+ * Gdy do szeregu dopisywane są nowe notowania, indeks jest przedłużany, a nie budowany od nowa.
+ */
+public class RatePrefixIndex {
+
+    private final RateSeries series;
+
+    private long[] sumaKupna = new long[1];
+    private long[] sumaKwadratowKupna = new long[1];
+    private long[] sumaSprzedazy = new long[1];
+    private long[] sumaKwadratowSprzedazy = new long[1];
+    private int indexedSize;
+
+    public RatePrefixIndex(RateSeries series) {
+        this.series = series;
+        extend();
+    }
+
+    public RateSeries getSeries() {
+        return series;
+    }
+
+    /**
+     * Dolicza sumy dla notowań dopisanych do szeregu od ostatniego wywołania.
+     */
+    public synchronized void extend() {
+        int size = series.size();
+        if (size == indexedSize) {
+            return;
+        }
+        if (size + 1 > sumaKupna.length) {
+            int capacity = Math.max(size + 1, sumaKupna.length + (sumaKupna.length >> 1));
+            sumaKupna = Arrays.copyOf(sumaKupna, capacity);
+            sumaKwadratowKupna = Arrays.copyOf(sumaKwadratowKupna, capacity);
+            sumaSprzedazy = Arrays.copyOf(sumaSprzedazy, capacity);
+            sumaKwadratowSprzedazy = Arrays.copyOf(sumaKwadratowSprzedazy, capacity);
+        }
+        for (int i = indexedSize; i < size; i++) {
+            long kupno = series.getKursKupna(i);
+            long sprzedaz = series.getKursSprzedazy(i);
+            sumaKupna[i + 1] = Math.addExact(sumaKupna[i], kupno);
+            sumaKwadratowKupna[i + 1] = Math.addExact(sumaKwadratowKupna[i], Math.multiplyExact(kupno, kupno));
+            sumaSprzedazy[i + 1] = Math.addExact(sumaSprzedazy[i], sprzedaz);
+            sumaKwadratowSprzedazy[i + 1] = Math.addExact(sumaKwadratowSprzedazy[i], Math.multiplyExact(sprzedaz, sprzedaz));
+        }
+        indexedSize = size;
+    }
+
+    /**
+     * @param fromEpochDay pierwszy dzień przedziału (włącznie)
+     * @param toEpochDay   ostatni dzień przedziału (włącznie)
+     * @return statystyki kursów kupna i sprzedaży z notowań w przedziale
+     */
+    public synchronized QuotationStatistics query(int fromEpochDay, int toEpochDay) {
+        extend();
+        int from = Math.min(series.firstIndexOnOrAfter(fromEpochDay), indexedSize);
+        int to = Math.max(from, Math.min(series.firstIndexAfter(toEpochDay), indexedSize));
+        long count = to - from;
+        return new QuotationStatistics(
+                StatisticsAccumulator.of(count, sumaKupna[to] - sumaKupna[from], sumaKwadratowKupna[to] - sumaKwadratowKupna[from]),
+                StatisticsAccumulator.of(count, sumaSprzedazy[to] - sumaSprzedazy[from], sumaKwadratowSprzedazy[to] - sumaKwadratowSprzedazy[from]));
+    }
+}
@@ -0,0 +1,58 @@
+package pl.parser.nbp;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+
+/**
+ * Zapytanie o statystyki kursów jednej waluty w zadanym okresie (obie daty włącznie).
+ */
+public class RateQuery {
+
+    private final String kodWaluty;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    public RateQuery(String kodWaluty, LocalDate startDate, LocalDate endDate) throws DatesInWrongOrderException {
+        if (startDate.isAfter(endDate)) {
+            throw new DatesInWrongOrderException(startDate, endDate);
+        }
+        this.kodWaluty = kodWaluty;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    /**
+     * @param kodWaluty         kod waluty, np. USD
+     * @param startDateAsString data początkowa okresu (yyyy-MM-dd)
+     * @param endDateAsString   data końcowa okresu (yyyy-MM-dd)
+     * @throws ParseException
+     * @throws DatesInWrongOrderException
+     */
+    public static RateQuery parse(String kodWaluty, String startDateAsString, String endDateAsString) throws ParseException, DatesInWrongOrderException {
+        return new RateQuery(kodWaluty, NBPDates.parseInputDate(startDateAsString), NBPDates.parseInputDate(endDateAsString));
+    }
+
+    public String getKodWaluty() {
+        return kodWaluty;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    /**
+     * @return true, jeśli tabela opublikowana w podanym dniu należy do okresu zapytania
+     */
+    public boolean covers(LocalDate dataPublikacji) {
+        return !dataPublikacji.isBefore(startDate) && !dataPublikacji.isAfter(endDate);
+    }
+
+    @Override
+    public String toString() {
+        return kodWaluty + " " + startDate + " " + endDate;
+    }
+}
@@ -0,0 +1,108 @@
+package pl.parser.nbp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.xml.bind.JAXBException;
+import java.text.ParseException;
+import java.time.LocalDate;
+
+/**
+ * Odpowiada na wiele zapytań o statystyki kursów z danych trzymanych w {@link RateStore}.
+ * Tabele z serwisu NBP wczytywane są tylko wtedy, gdy zapytanie wychodzi poza przedział już wczytany - kolejne
+ * zapytania z tego przedziału liczone są w czasie stałym z indeksu sum prefiksowych.
+ *
+ * Nowsze tabele dopisywane są na końcu szeregów (indeksy są wtedy tylko przedłużane). Zapytanie o okres wcześniejszy
+ * niż już wczytany powoduje wczytanie całego przedziału od nowa - do osobnego magazynu, który po wczytaniu zastępuje
+ * zawartość {@link RateStore} jedną podmianą.
+ *
+ * Zapytania z przedziału już wczytanego nie czekają na zapytania, które w tym czasie pobierają tabele z serwisu NBP
+ * (pobieranie odbywa się pod monitorem magazynu, a zapytania tylko pod jego blokadą odczytu).
+ */
+@Service
+public class RateQueryService {
+
+    @Autowired
+    private NBPDataService NBPDataService;
+
+    @Autowired
+    private RateStore rateStore;
+
+    @Autowired
+    private NBPMetrics metrics;
+
+    /**
+     * @param currencyName      kod waluty, np. USD
+     * @param startDateAsString data początkowa okresu (yyyy-MM-dd)
+     * @param endDateAsString   data końcowa okresu (yyyy-MM-dd)
+     * @return statystyki kursu kupna i sprzedaży waluty w danym okresie
+     * @throws DatesInWrongOrderException
+     * @throws JAXBException
+     * @throws ParseException
+     */
+    public QuotationStatistics getStatistics(String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        long start = System.nanoTime();
+        try {
+            return computeStatistics(currencyName, startDateAsString, endDateAsString);
+        } finally {
+            metrics.timer(NBPMetrics.Stage.QUERY).recordSince(start);
+        }
+    }
+
+    private QuotationStatistics computeStatistics(String currencyName, String startDateAsString, String endDateAsString) throws DatesInWrongOrderException, JAXBException, ParseException {
+        LocalDate startDate = NBPDates.parseInputDate(startDateAsString);
+        LocalDate endDate = NBPDates.parseInputDate(endDateAsString);
+        if (startDate.isAfter(endDate)) {
+            throw new DatesInWrongOrderException(startDate, endDate);
+        }
+        int from = (int) startDate.toEpochDay();
+        int to = (int) endDate.toEpochDay();
+
+        long start = System.nanoTime();
+        QuotationStatistics statistics = rateStore.queryIfLoaded(currencyName, from, to);
+        if (statistics == null) {
+            ensureLoaded(startDate, endDate);
+            start = System.nanoTime();
+            //przedział z bieżącym dniem nigdy nie jest oznaczany jako wczytany - liczymy z tego, co jest w magazynie
+            statistics = rateStore.query(currencyName, from, to);
+        }
+        metrics.timer(NBPMetrics.Stage.COMPUTE).recordSince(start);
+        return statistics;
+    }
+
+    private void ensureLoaded(LocalDate startDate, LocalDate endDate) throws DatesInWrongOrderException, JAXBException, ParseException {
+        int from = (int) startDate.toEpochDay();
+        int to = (int) endDate.toEpochDay();
+        synchronized (rateStore) {
+            if (rateStore.isLoaded(from, to)) {
+                return;
+            }
+            int loadedFrom = rateStore.getLoadedFromEpochDay();
+            int loadedTo = rateStore.getLoadedToEpochDay();
+            if (loadedFrom <= loadedTo && from >= loadedFrom && from <= loadedTo + 1) {
+                //dopisujemy tylko brakujące nowsze tabele - za wczytanym przedziałem, więc nie zmieniają wyników
+                //zapytań z tego przedziału
+                load(rateStore, LocalDate.ofEpochDay(loadedTo + 1), endDate);
+            } else {
+                LocalDate reloadStart = loadedFrom <= loadedTo ? LocalDate.ofEpochDay(Math.min(from, loadedFrom)) : startDate;
+                LocalDate reloadEnd = loadedFrom <= loadedTo ? LocalDate.ofEpochDay(Math.max(to, loadedTo)) : endDate;
+                RateStore reloaded = new RateStore();
+                load(reloaded, reloadStart, reloadEnd);
+                rateStore.replaceWith(reloaded);
+            }
+        }
+    }
+
+    /**
+     * Dzisiejsza tabela może zostać opublikowana później w ciągu dnia, więc bieżący dzień nigdy nie jest oznaczany
+     * jako wczytany - zapytanie o niego dociągnie ewentualną nową tabelę.
+     */
+    private void load(RateStore target, LocalDate startDate, LocalDate endDate) throws DatesInWrongOrderException, JAXBException, ParseException {
+        NBPDataService.loadRates(startDate.toString(), endDate.toString(), target);
+        LocalDate lastFinalDay = LocalDate.now().minusDays(1);
+        LocalDate loadedEnd = endDate.isAfter(lastFinalDay) ? lastFinalDay : endDate;
+        if (!loadedEnd.isBefore(startDate)) {
+            target.markLoaded((int) startDate.toEpochDay(), (int) loadedEnd.toEpochDay());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package pl.parser.nbp;
+
+/**
+ * Kolumnowy szereg czasowy kursów jednej waluty: dzień publikacji tabeli (liczba dni od 1970-01-01, jak w
+ * {@link java.time.LocalDate#toEpochDay()}), kurs kupna i kurs sprzedaży (w jednostkach 1/{@link RateParser#SCALE}).
+ * Notowania posortowane są rosnąco po dniu, każdy dzień występuje co najwyżej raz.
+ *
+ * Dniem notowania w szeregu jest dzień publikacji tabeli, a nie data_notowania z pliku - tak jak przy wyborze
+ * plików dla okresu w {@link NBPDataService}, dzięki czemu wyniki z obu ścieżek są identyczne.
+ */
+public abstract class RateSeries {
+
+    public abstract String getKodWaluty();
+
+    public abstract int size();
+
+    public abstract int getEpochDay(int index);
+
+    public abstract long getKursKupna(int index);
+
+    public abstract long getKursSprzedazy(int index);
+
+    /**
+     * @return indeks pierwszego notowania z dnia nie wcześniejszego niż epochDay (lub size(), jeśli takiego nie ma)
+     */
+    public int firstIndexOnOrAfter(int epochDay) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getEpochDay(middle) < epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return indeks pierwszego notowania z dnia późniejszego niż epochDay (lub size(), jeśli takiego nie ma)
+     */
+    public int firstIndexAfter(int epochDay) {
+        return epochDay == Integer.MAX_VALUE ? size() : firstIndexOnOrAfter(epochDay + 1);
+    }
+
+    public int getLastEpochDay() {
+        return size() > 0 ? getEpochDay(size() - 1) : Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,165 @@
+package pl.parser.nbp;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Migawka całej zawartości {@link RateStore} w jednym pliku binarnym, wczytywana przez mapowanie pliku do pamięci -
+ * bez parsowania i bez kopiowania kursów na stertę.
+ *
+ * Układ pliku (liczby big-endian):
+ * - nagłówek (32 bajty): znacznik "NBPS", wersja formatu, liczba walut, zarezerwowane, pierwszy i ostatni dzień
+ *   wczytanego przedziału (epoch day), czas utworzenia migawki (ms, long),
+ * - słownik walut - po 16 bajtów na walutę: kod waluty (ASCII, dopełniony zerami do 8 bajtów), liczba notowań,
+ *   położenie szeregu w pliku,
+ * - szeregi walut w formacie {@link MappedRateSeries}: kolumny dni notowań (int), kursów kupna i kursów sprzedaży (long),
+ *   każdy wyrównany do 8 bajtów.
+ */
+public final class RateSnapshot {
+
+    private static final int MAGIC = 0x4e425053; // "NBPS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int CODE_LENGTH = 8;
+    private static final int DICTIONARY_ENTRY_SIZE = CODE_LENGTH + 8;
+    private static final int ALIGNMENT = 8;
+
+    private final Map<String, RateSeries> series;
+    private final int loadedFromEpochDay;
+    private final int loadedToEpochDay;
+    private final long createdMillis;
+
+    private RateSnapshot(Map<String, RateSeries> series, int loadedFromEpochDay, int loadedToEpochDay, long createdMillis) {
+        this.series = Collections.unmodifiableMap(series);
+        this.loadedFromEpochDay = loadedFromEpochDay;
+        this.loadedToEpochDay = loadedToEpochDay;
+        this.createdMillis = createdMillis;
+    }
+
+    /**
+     * Zapisuje migawkę. Plik zapisywany jest pod nazwą tymczasową i dopiero potem podmieniany, więc procesy, które
+     * mają zmapowaną poprzednią wersję, mogą z niej dalej korzystać.
+     *
+     * @param series             szeregi kursów walut
+     * @param loadedFromEpochDay początek przedziału, z którego wczytano wszystkie tabele
+     * @param loadedToEpochDay   koniec tego przedziału
+     */
+    public static void write(Collection<RateSeries> series, int loadedFromEpochDay, int loadedToEpochDay, Path file) throws IOException {
+        List<RateSeries> all = new ArrayList<RateSeries>(series);
+        int[] sizes = new int[all.size()];
+        int[] offsets = new int[all.size()];
+        long length = align(HEADER_SIZE + (long) DICTIONARY_ENTRY_SIZE * all.size());
+        for (int i = 0; i < all.size(); i++) {
+            sizes[i] = all.get(i).size();
+            offsets[i] = (int) length;
+            length = align(length + MappedRateSeries.encodedSize(sizes[i]));
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Migawka przekracza 2 GB");
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(all.size()).putInt(0)
+                .putInt(loadedFromEpochDay).putInt(loadedToEpochDay).putLong(System.currentTimeMillis());
+        for (int i = 0; i < all.size(); i++) {
+            byte[] code = all.get(i).getKodWaluty().getBytes(StandardCharsets.US_ASCII);
+            if (code.length > CODE_LENGTH) {
+                throw new IOException("Zbyt długi kod waluty: " + all.get(i).getKodWaluty());
+            }
+            buffer.put(code).put(new byte[CODE_LENGTH - code.length]).putInt(sizes[i]).putInt(offsets[i]);
+        }
+        for (int i = 0; i < all.size(); i++) {
+            buffer.position(offsets[i]);
+            MappedRateSeries.encode(all.get(i), buffer);
+        }
+
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, buffer.array());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Mapuje migawkę do pamięci. Odczytywany jest tylko nagłówek i słownik walut - kursy czytane są z mapowania
+     * dopiero przy zapytaniach.
+     *
+     * @throws IOException gdy pliku nie da się odczytać albo ma nieznany format lub wersję
+     */
+    public static RateSnapshot open(Path file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Plik " + file + " nie jest migawką kursów");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Nieobsługiwana wersja migawki kursów: " + buffer.getInt(4));
+        }
+        int currencies = buffer.getInt(8);
+        if (currencies < 0 || buffer.limit() < HEADER_SIZE + (long) DICTIONARY_ENTRY_SIZE * currencies) {
+            throw new IOException("Niepełna migawka kursów: " + file);
+        }
+
+        Map<String, RateSeries> series = new LinkedHashMap<String, RateSeries>();
+        byte[] code = new byte[CODE_LENGTH];
+        for (int i = 0; i < currencies; i++) {
+            int entry = HEADER_SIZE + DICTIONARY_ENTRY_SIZE * i;
+            ByteBuffer dictionary = buffer.duplicate();
+            dictionary.position(entry);
+            dictionary.get(code);
+            int size = dictionary.getInt();
+            int offset = dictionary.getInt();
+            String kodWaluty = new String(code, StandardCharsets.US_ASCII).trim();
+            if (size < 0 || offset < 0 || offset > buffer.limit() - MappedRateSeries.encodedSize(size)) {
+                throw new IOException("Niepełna migawka kursów: " + file);
+            }
+            ByteBuffer block = buffer.duplicate();
+            block.position(offset);
+            series.put(kodWaluty, MappedRateSeries.wrap(kodWaluty, block));
+        }
+        return new RateSnapshot(series, buffer.getInt(16), buffer.getInt(20), buffer.getLong(24));
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * @return szeregi kursów według kodów walut
+     */
+    public Map<String, RateSeries> getSeries() {
+        return series;
+    }
+
+    public int getLoadedFromEpochDay() {
+        return loadedFromEpochDay;
+    }
+
+    public int getLoadedToEpochDay() {
+        return loadedToEpochDay;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+}
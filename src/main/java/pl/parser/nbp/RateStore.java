@@ -0,0 +1,352 @@
+package pl.parser.nbp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Pamięć notowań wszystkich walut w postaci kolumnowej - po jednym {@link RateSeries} na kod waluty.
+ * Notowania zapisywane są pod dniem publikacji tabeli, a nie pod datą notowania z pliku - tak samo wybierane są pliki
+ * dla okresu w {@link NBPDataService} i tak samo liczony jest przedział wczytanych tabel, więc zapytania z magazynu
+ * i z pobranych plików obejmują dokładnie te same tabele. Tabele muszą być dodawane w kolejności dat publikacji.
+ *
+ * Dla każdej waluty utrzymywany jest też {@link RatePrefixIndex}, a sam magazyn pamięta przedział dat, z którego
+ * wczytano już wszystkie tabele - zapytania z tego przedziału nie wymagają sięgania do serwisu NBP.
+ *
+ * Szeregi można zapisać do katalogu (plik KOD.rates na walutę) i później zmapować z powrotem do pamięci, co pozwala
+ * trzymać wieloletnią historię wszystkich walut poza stertą.
+ *
+ * Całą zawartość magazynu można też zapisać w jednym pliku migawki ({@link RateSnapshot}). Jeśli ustawiono
+ * 'nbp.snapshot.file', a plik istnieje, migawka mapowana jest do pamięci przy starcie - bez pobierania i parsowania
+ * tabel; {@link ArchiveIngestService} zapisuje ją po każdym wczytaniu archiwum.
+ *
+ * Zapytania ({@link #query}, {@link #queryIfLoaded}) wykonywane są pod blokadą odczytu i nie czekają na pobieranie
+ * tabel z serwisu NBP. Zmiany magazynu wykonywane są pod monitorem obiektu (także złożone, np. sprawdzenie
+ * wczytanego przedziału i dopisanie tabel w synchronized (rateStore)), a samo zapisanie zmian w pamięci dodatkowo
+ * pod blokadą zapisu. Magazyn wczytywany od nowa należy zbudować w osobnym obiekcie i podmienić metodą
+ * {@link #replaceWith} - zapytania widzą wtedy albo poprzednią, albo nową zawartość, nigdy częściowo wczytaną.
+ */
+@Component
+public class RateStore {
+
+    private static final Log LOG = LogFactory.getLog(RateStore.class);
+
+    private static final String SERIES_FILE_SUFFIX = ".rates";
+
+    @Value("${nbp.snapshot.file:}")
+    private String snapshotFile;
+
+    private final ConcurrentMap<String, RateSeries> seriesByKodWaluty = new ConcurrentHashMap<String, RateSeries>();
+    private final ConcurrentMap<String, RatePrefixIndex> prefixIndexes = new ConcurrentHashMap<String, RatePrefixIndex>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int loadedFromEpochDay = Integer.MAX_VALUE;
+    private int loadedToEpochDay = Integer.MIN_VALUE;
+
+    /**
+     * Uszkodzona lub nieaktualna (inna wersja formatu) migawka nie blokuje startu - magazyn zaczyna wtedy pusty,
+     * a tabele pobierane są z serwisu NBP.
+     */
+    @PostConstruct
+    public void init() {
+        Path snapshot = getSnapshotFile();
+        if (snapshot == null || !Files.isRegularFile(snapshot)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            loadSnapshot(snapshot);
+            LOG.info("Wczytano migawkę kursów " + snapshot + " (" + seriesByKodWaluty.size() + " walut) w "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException e) {
+            LOG.warn("Pominięto migawkę kursów " + snapshot, e);
+            clear();
+        }
+    }
+
+    /**
+     * @return plik migawki z ustawienia 'nbp.snapshot.file' lub null, jeśli migawki nie używamy
+     */
+    public Path getSnapshotFile() {
+        return snapshotFile == null || snapshotFile.isEmpty() ? null : Paths.get(snapshotFile);
+    }
+
+    /**
+     * @return szereg kursów waluty lub null, jeśli nie ma żadnych jej notowań
+     */
+    public RateSeries getSeries(String kodWaluty) {
+        lock.readLock().lock();
+        try {
+            return seriesByKodWaluty.get(kodWaluty);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<String> getKodyWalut() {
+        lock.readLock().lock();
+        try {
+            return new TreeSet<String>(seriesByKodWaluty.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Statystyki kursów waluty z przedziału dni [fromEpochDay, toEpochDay], jeśli wszystkie tabele z tego przedziału
+     * zostały już wczytane - sprawdzenie i obliczenie wykonywane są pod jedną blokadą odczytu.
+     *
+     * @return statystyki (puste, jeśli nie ma żadnych notowań waluty) lub null, jeśli przedział nie jest wczytany
+     */
+    public QuotationStatistics queryIfLoaded(String kodWaluty, int fromEpochDay, int toEpochDay) {
+        lock.readLock().lock();
+        try {
+            if (!isLoadedRange(fromEpochDay, toEpochDay)) {
+                return null;
+            }
+            return queryIndex(kodWaluty, fromEpochDay, toEpochDay);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Statystyki kursów waluty z przedziału dni [fromEpochDay, toEpochDay] z notowań obecnych w magazynie.
+     *
+     * @return statystyki (puste, jeśli nie ma żadnych notowań waluty)
+     */
+    public QuotationStatistics query(String kodWaluty, int fromEpochDay, int toEpochDay) {
+        lock.readLock().lock();
+        try {
+            return queryIndex(kodWaluty, fromEpochDay, toEpochDay);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private QuotationStatistics queryIndex(String kodWaluty, int fromEpochDay, int toEpochDay) {
+        RatePrefixIndex index = prefixIndex(kodWaluty);
+        return index == null ? new QuotationStatistics() : index.query(fromEpochDay, toEpochDay);
+    }
+
+    /**
+     * @return indeks sum prefiksowych dla szeregu waluty (przedłużony o ewentualne nowe notowania)
+     * lub null, jeśli nie ma żadnych jej notowań
+     */
+    public RatePrefixIndex getPrefixIndex(String kodWaluty) {
+        lock.readLock().lock();
+        try {
+            return prefixIndex(kodWaluty);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private RatePrefixIndex prefixIndex(String kodWaluty) {
+        RateSeries series = seriesByKodWaluty.get(kodWaluty);
+        if (series == null) {
+            return null;
+        }
+        RatePrefixIndex index = prefixIndexes.get(kodWaluty);
+        if (index == null || index.getSeries() != series) {
+            //szereg został zastąpiony (wczytany z pliku lub skopiowany do zapisu) - indeks trzeba zbudować od nowa
+            index = new RatePrefixIndex(series);
+            prefixIndexes.put(kodWaluty, index);
+        } else {
+            index.extend();
+        }
+        return index;
+    }
+
+    /**
+     * @return true, jeśli wszystkie tabele z przedziału dni [fromEpochDay, toEpochDay] zostały już wczytane
+     */
+    public boolean isLoaded(int fromEpochDay, int toEpochDay) {
+        lock.readLock().lock();
+        try {
+            return isLoadedRange(fromEpochDay, toEpochDay);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isLoadedRange(int fromEpochDay, int toEpochDay) {
+        return fromEpochDay >= loadedFromEpochDay && toEpochDay <= loadedToEpochDay;
+    }
+
+    public int getLoadedFromEpochDay() {
+        lock.readLock().lock();
+        try {
+            return loadedFromEpochDay;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getLoadedToEpochDay() {
+        lock.readLock().lock();
+        try {
+            return loadedToEpochDay;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Zapamiętuje, że wczytano wszystkie tabele z podanego przedziału dni. Przedział musi stykać się lub nachodzić
+     * na przedział wczytany wcześniej.
+     */
+    public synchronized void markLoaded(int fromEpochDay, int toEpochDay) {
+        lock.writeLock().lock();
+        try {
+            if (loadedFromEpochDay > loadedToEpochDay) {
+                loadedFromEpochDay = fromEpochDay;
+                loadedToEpochDay = toEpochDay;
+            } else {
+                if (fromEpochDay > loadedToEpochDay + 1 || toEpochDay < loadedFromEpochDay - 1) {
+                    throw new IllegalArgumentException("Wczytany przedział nie styka się z przedziałem już wczytanym");
+                }
+                loadedFromEpochDay = Math.min(loadedFromEpochDay, fromEpochDay);
+                loadedToEpochDay = Math.max(loadedToEpochDay, toEpochDay);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public synchronized void clear() {
+        replaceContents(Collections.<String, RateSeries>emptyMap(), Integer.MAX_VALUE, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Zastępuje całą zawartość magazynu (szeregi i wczytany przedział) zawartością innego, zbudowanego osobno magazynu.
+     * Podmiana jest atomowa względem zapytań. Drugi magazyn nie powinien być później zmieniany.
+     */
+    public synchronized void replaceWith(RateStore other) {
+        Map<String, RateSeries> series;
+        int fromEpochDay;
+        int toEpochDay;
+        other.lock.readLock().lock();
+        try {
+            series = new HashMap<String, RateSeries>(other.seriesByKodWaluty);
+            fromEpochDay = other.loadedFromEpochDay;
+            toEpochDay = other.loadedToEpochDay;
+        } finally {
+            other.lock.readLock().unlock();
+        }
+        replaceContents(series, fromEpochDay, toEpochDay);
+    }
+
+    private void replaceContents(Map<String, RateSeries> series, int fromEpochDay, int toEpochDay) {
+        lock.writeLock().lock();
+        try {
+            seriesByKodWaluty.clear();
+            seriesByKodWaluty.putAll(series);
+            //indeksy budowane są od nowa przy pierwszym zapytaniu
+            prefixIndexes.clear();
+            loadedFromEpochDay = fromEpochDay;
+            loadedToEpochDay = toEpochDay;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Dopisuje notowania z jednej tabeli kursów. Notowania z dni już obecnych w szeregu danej waluty są pomijane.
+     */
+    public synchronized void addTable(List<Quotation> tabela) {
+        lock.writeLock().lock();
+        try {
+            for (Quotation quotation : tabela) {
+                ArrayRateSeries series = getWritableSeries(quotation.getKodWaluty());
+                series.append((int) quotation.getDataPublikacji().toEpochDay(), quotation.getKursKupna(), quotation.getKursSprzedazy());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Szeregi zmapowane z pliku są tylko do odczytu - przed pierwszym dopisaniem kopiowane są na stertę.
+     */
+    private ArrayRateSeries getWritableSeries(String kodWaluty) {
+        RateSeries series = seriesByKodWaluty.get(kodWaluty);
+        if (!(series instanceof ArrayRateSeries)) {
+            series = series == null ? new ArrayRateSeries(kodWaluty) : ArrayRateSeries.copyOf(series);
+            seriesByKodWaluty.put(kodWaluty, series);
+        }
+        return (ArrayRateSeries) series;
+    }
+
+    public synchronized void save(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (RateSeries series : seriesByKodWaluty.values()) {
+            MappedRateSeries.write(series, directory.resolve(series.getKodWaluty() + SERIES_FILE_SUFFIX));
+        }
+    }
+
+    /**
+     * Zapisuje całą zawartość magazynu wraz z wczytanym przedziałem dat do jednego pliku migawki.
+     */
+    public synchronized void saveSnapshot(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        RateSnapshot.write(seriesByKodWaluty.values(), loadedFromEpochDay, loadedToEpochDay, file);
+    }
+
+    /**
+     * Mapuje do pamięci migawkę zapisaną metodą {@link #saveSnapshot}, zastępując dotychczasową zawartość.
+     * Wczytany przedział dat odtwarzany jest z migawki.
+     */
+    public synchronized void loadSnapshot(Path file) throws IOException {
+        RateSnapshot snapshot = RateSnapshot.open(file);
+        replaceContents(snapshot.getSeries(), snapshot.getLoadedFromEpochDay(), snapshot.getLoadedToEpochDay());
+    }
+
+    /**
+     * Mapuje do pamięci wszystkie szeregi zapisane wcześniej metodą {@link #save}, zastępując dotychczasową zawartość.
+     * Za wczytany uznawany jest przedział od najwcześniejszego do najpóźniejszego notowania w plikach.
+     */
+    public synchronized void load(Path directory) throws IOException {
+        Map<String, RateSeries> seriesByKod = new HashMap<String, RateSeries>();
+        int fromEpochDay = Integer.MAX_VALUE;
+        int toEpochDay = Integer.MIN_VALUE;
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SERIES_FILE_SUFFIX);
+        try {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String kodWaluty = fileName.substring(0, fileName.length() - SERIES_FILE_SUFFIX.length());
+                MappedRateSeries series = MappedRateSeries.open(kodWaluty, file);
+                seriesByKod.put(kodWaluty, series);
+                if (series.size() > 0) {
+                    fromEpochDay = Math.min(fromEpochDay, series.getEpochDay(0));
+                    toEpochDay = Math.max(toEpochDay, series.getLastEpochDay());
+                }
+            }
+        } finally {
+            files.close();
+        }
+        replaceContents(seriesByKod, fromEpochDay, toEpochDay);
+    }
+}
@@ -0,0 +1,85 @@
+package pl.parser.nbp;
+
+import java.time.LocalDate;
+
+/**
+ * Statystyki w oknie przesuwnym o stałej liczbie notowań. Każde nowe notowanie dodawane jest do akumulatorów,
+ * a notowanie, które wypadło z okna, jest z nich usuwane - koszt przesunięcia okna jest stały, niezależnie od jego
+ * rozmiaru. Okno przechowuje tylko kursy notowań, które w nim są (w buforze cyklicznym).
+ *
+ * Po każdym notowaniu, od chwili, gdy okno jest pełne, wywoływany jest {@link Listener} - wyniki są przekazywane
+ * na bieżąco, bez gromadzenia całego szeregu. Klasa nie jest bezpieczna wątkowo.
+ */
+public class RollingStatistics {
+
+    public interface Listener {
+
+        /**
+         * @param first data publikacji pierwszej tabeli w oknie
+         * @param last  data publikacji ostatniej tabeli w oknie
+         * @param buy   statystyki kursu kupna w oknie - ważne tylko w trakcie wywołania
+         * @param sell  statystyki kursu sprzedaży w oknie - ważne tylko w trakcie wywołania
+         */
+        void window(LocalDate first, LocalDate last, StatisticsAccumulator buy, StatisticsAccumulator sell);
+    }
+
+    private final Listener listener;
+    private final long[] kursyKupna;
+    private final long[] kursySprzedazy;
+    private final LocalDate[] daty;
+    private final StatisticsAccumulator buy = new StatisticsAccumulator();
+    private final StatisticsAccumulator sell = new StatisticsAccumulator();
+
+    private int oldest;
+    private int count;
+    private long windows;
+
+    /**
+     * @param windowSize liczba notowań w oknie
+     */
+    public RollingStatistics(int windowSize, Listener listener) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Rozmiar okna musi być dodatni: " + windowSize);
+        }
+        this.listener = listener;
+        this.kursyKupna = new long[windowSize];
+        this.kursySprzedazy = new long[windowSize];
+        this.daty = new LocalDate[windowSize];
+    }
+
+    /**
+     * @param quotation kolejne notowanie - notowania muszą być dodawane w kolejności dat; null jest pomijany
+     */
+    public void add(Quotation quotation) {
+        if (quotation == null) {
+            return;
+        }
+        int size = daty.length;
+        int slot;
+        if (count == size) {
+            slot = oldest;
+            buy.remove(kursyKupna[slot]);
+            sell.remove(kursySprzedazy[slot]);
+            oldest = (oldest + 1) % size;
+        } else {
+            slot = (oldest + count) % size;
+            count++;
+        }
+        kursyKupna[slot] = quotation.getKursKupna();
+        kursySprzedazy[slot] = quotation.getKursSprzedazy();
+        daty[slot] = quotation.getDataPublikacji();
+        buy.add(quotation.getKursKupna());
+        sell.add(quotation.getKursSprzedazy());
+        if (count == size) {
+            windows++;
+            listener.window(daty[oldest], daty[slot], buy, sell);
+        }
+    }
+
+    /**
+     * @return liczba przekazanych okien
+     */
+    public long getWindows() {
+        return windows;
+    }
+}
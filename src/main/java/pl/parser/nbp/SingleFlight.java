@@ -0,0 +1,105 @@
+package pl.parser.nbp;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Rejestr operacji "w locie": jeśli kilka wątków jednocześnie zleca operację o tym samym kluczu (np. pobranie
+ * tego samego pliku), wykonuje ją tylko pierwszy z nich, a pozostałe czekają i dostają ten sam wynik lub ten sam wyjątek.
+ *
+ * Operacja wykonywana jest w wątku pierwszego wywołującego. Jeśli ten wątek zostanie przerwany (np. jego zapytanie
+ * zostało anulowane) i operacja przez to się nie powiedzie, wyjątek dostaje tylko on - pozostałe wątki nie przejmują
+ * cudzego anulowania, tylko wykonują operację od nowa (jeden z nich, reszta znowu czeka na jego wynik).
+ *
+ * Wynik nie jest zapamiętywany - po zakończeniu operacji kolejne wywołanie z tym samym kluczem wykona ją ponownie.
+ *
+ * @param <K> klucz operacji
+ * @param <V> wynik operacji
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /**
+     * @param key    klucz operacji
+     * @param loader operacja - wykonywana tylko wtedy, gdy żaden inny wątek nie wykonuje właśnie operacji o tym kluczu
+     * @return wynik operacji (wspólny dla wszystkich czekających wątków)
+     * @throws Exception wyjątek rzucony przez operację
+     */
+    public V execute(K key, final Callable<V> loader) throws Exception {
+        while (true) {
+            FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    try {
+                        return loader.call();
+                    } catch (Exception e) {
+                        if (Thread.currentThread().isInterrupted() || isInterruption(e)) {
+                            throw new OwnerInterruptedException(e);
+                        }
+                        throw e;
+                    }
+                }
+            });
+            FutureTask<V> running = inFlight.putIfAbsent(key, task);
+            boolean owner = running == null;
+            if (owner) {
+                running = task;
+                try {
+                    task.run();
+                } finally {
+                    inFlight.remove(key, task);
+                }
+            }
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof OwnerInterruptedException) {
+                    if (!owner) {
+                        //operacja przerwana razem z wątkiem, który ją wykonywał - próbujemy jeszcze raz
+                        continue;
+                    }
+                    cause = cause.getCause();
+                }
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+    }
+
+    /**
+     * @return true dla wyjątków oznaczających przerwanie wątku (a nie np. przekroczenie czasu odczytu)
+     */
+    private static boolean isInterruption(Exception e) {
+        return e instanceof InterruptedException || e instanceof ClosedByInterruptException
+                || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException));
+    }
+
+    /**
+     * @return liczba operacji wykonywanych w tej chwili
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Operacja nie powiodła się, bo przerwano wątek, który ją wykonywał.
+     */
+    private static class OwnerInterruptedException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        OwnerInterruptedException(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package pl.parser.nbp;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Licznik czasu jednego etapu przetwarzania (np. pobieranie, parsowanie). Bez blokad - może być aktualizowany
+ * jednocześnie z wielu wątków.
+ *
+ * Percentyle liczone są z histogramu w mikrosekundach: każda potęga dwójki podzielona jest na 4 przedziały,
+ * więc błąd wyniku nie przekracza 25%, a histogram ma stały rozmiar niezależnie od liczby pomiarów.
+ */
+public class StageTimer implements StageTimerMBean {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private volatile long startNanos = System.nanoTime();
+
+    public StageTimer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param nanos czas trwania jednego wykonania etapu
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        histogram.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @param startNanos wartość System.nanoTime() z początku etapu
+     * @return bieżąca wartość System.nanoTime() - początek następnego etapu
+     */
+    public long recordSince(long startNanos) {
+        long now = System.nanoTime();
+        record(now - startNanos);
+        return now;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return toMillis(totalNanos.get());
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : toMillis(totalNanos.get()) / n;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    @Override
+    public double getP50Millis() {
+        return getPercentileMillis(0.50);
+    }
+
+    @Override
+    public double getP95Millis() {
+        return getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return getPercentileMillis(0.99);
+    }
+
+    /**
+     * @return średnia liczba wykonań etapu na sekundę od uruchomienia (lub od ostatniego wyzerowania)
+     */
+    @Override
+    public double getRatePerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : count.get() * 1e9 / elapsed;
+    }
+
+    /**
+     * @param quantile np. 0.95
+     * @return górna granica przedziału histogramu, w którym leży dany percentyl (nie większa niż maksimum)
+     */
+    public double getPercentileMillis(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = histogram.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i) / 1000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        startNanos = System.nanoTime();
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - 2)) - 1;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: n=%d mean=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                name, getCount(), getMeanMillis(), getP95Millis(), getP99Millis(), getMaxMillis());
+    }
+}
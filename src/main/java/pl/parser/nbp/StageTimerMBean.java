@@ -0,0 +1,25 @@
+package pl.parser.nbp;
+
+/**
+ * Interfejs JMX dla {@link StageTimer}. Czasy podawane są w milisekundach.
+ */
+public interface StageTimerMBean {
+
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getRatePerSecond();
+
+    void reset();
+}
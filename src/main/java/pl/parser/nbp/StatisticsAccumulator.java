@@ -0,0 +1,96 @@
+package pl.parser.nbp;
+
+import java.math.BigInteger;
+
+/**
+ * Jednoprzebiegowe liczenie średniej i odchylenia standardowego kursów stałoprzecinkowych
+ * (w jednostkach 1/{@link RateParser#SCALE}). Przechowuje tylko liczbę wartości, ich sumę oraz sumę kwadratów -
+ * wszystkie jako dokładne liczby całkowite, więc zużycie pamięci nie zależy od liczby dodanych wartości,
+ * a wynik nie zależy od kolejności dodawania ani od długości okresu (brak narastających błędów zaokrągleń).
+ *
+ * Częściowe wyniki policzone niezależnie (np. przez różne wątki) można połączyć metodą {@link #merge}.
+ * Przekroczenie zakresu sum zgłaszane jest wyjątkiem ArithmeticException.
+ * Klasa nie jest bezpieczna wątkowo - każdy wątek powinien używać własnej instancji.
+ */
+public class StatisticsAccumulator {
+
+    private long count;
+    private long sum;
+    private long sumOfSquares;
+
+    /**
+     * @return akumulator o podanym stanie, np. wyliczonym z sum prefiksowych
+     */
+    public static StatisticsAccumulator of(long count, long sum, long sumOfSquares) {
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        accumulator.count = count;
+        accumulator.sum = sum;
+        accumulator.sumOfSquares = sumOfSquares;
+        return accumulator;
+    }
+
+    /**
+     * @param value kurs w jednostkach 1/{@link RateParser#SCALE}
+     */
+    public void add(long value) {
+        count++;
+        sum = Math.addExact(sum, value);
+        sumOfSquares = Math.addExact(sumOfSquares, Math.multiplyExact(value, value));
+    }
+
+    /**
+     * Usuwa wartość dodaną wcześniej metodą {@link #add} - np. przy przesuwaniu okna. Sumy są dokładne, więc stan
+     * jest taki sam, jak gdyby wartość nigdy nie została dodana.
+     *
+     * @param value kurs w jednostkach 1/{@link RateParser#SCALE}
+     */
+    public void remove(long value) {
+        if (count == 0) {
+            throw new IllegalStateException("Brak wartości do usunięcia");
+        }
+        count--;
+        sum = Math.subtractExact(sum, value);
+        sumOfSquares = Math.subtractExact(sumOfSquares, Math.multiplyExact(value, value));
+    }
+
+    public void merge(StatisticsAccumulator other) {
+        count += other.count;
+        sum = Math.addExact(sum, other.sum);
+        sumOfSquares = Math.addExact(sumOfSquares, other.sumOfSquares);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return średnia arytmetyczna (w złotych) lub 0, jeśli nie dodano żadnej wartości
+     */
+    public double getMean() {
+        return count > 0 ? (double) sum / count / RateParser.SCALE : 0d;
+    }
+
+    /**
+     * Wariancja populacji liczona jest dokładnie jako (n * suma kwadratów - suma^2) / n^2; zaokrąglenie
+     * następuje dopiero przy zamianie wyniku na double.
+     *
+     * @return wariancja populacji (w złotych do kwadratu)
+     */
+    public double getVariance() {
+        if (count == 0) {
+            return 0d;
+        }
+        BigInteger n = BigInteger.valueOf(count);
+        BigInteger s = BigInteger.valueOf(sum);
+        BigInteger numerator = n.multiply(BigInteger.valueOf(sumOfSquares)).subtract(s.multiply(s));
+        return numerator.doubleValue() / ((double) count * count) / ((double) RateParser.SCALE * RateParser.SCALE);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+}
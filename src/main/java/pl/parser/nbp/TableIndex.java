@@ -0,0 +1,236 @@
+package pl.parser.nbp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparsowana zawartość jednego pliku indeksu dir*.txt - odwzorowanie typu tabeli i daty publikacji (w formacie NBP,
+ * yyMMdd) na plik z tabelą kursów. Każda linia indeksu to nazwa pliku postaci tXXXzYYMMDD, gdzie:
+ * t - typ tabeli ({@link TableType}), XXX - numer tabeli w roku, YYMMDD - data publikacji.
+ *
+ * Indeks zawiera tabele wszystkich typów, więc jeden odczyt pliku dir*.txt obsługuje zapytania o każdy typ tabel.
+ * Indeks budowany jest raz dla pliku i może być używany wielokrotnie - wyszukanie pliku dla danego typu i dnia to
+ * jedno odwołanie do mapy.
+ */
+public class TableIndex {
+
+    private static final char DATE_SEPARATOR = 'z';
+    private static final int NBP_DATE_LENGTH = 6;
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final Map<TableType, Map<String, Entry>> entriesByDate;
+    private final List<Entry> entries;
+    private final String firstLine;
+    private final int lineCount;
+
+    private TableIndex(Map<TableType, Map<String, Entry>> entriesByDate, List<Entry> entries, String firstLine, int lineCount) {
+        this.entriesByDate = entriesByDate;
+        this.entries = entries;
+        this.firstLine = firstLine;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Czyta indeks linia po linii. Linie w nieznanym formacie lub z nieznanym typem tabeli są pomijane.
+     */
+    public static TableIndex parse(BufferedReader indexFile) throws IOException {
+        return new TableIndex(new EnumMap<TableType, Map<String, Entry>>(TableType.class), new ArrayList<Entry>(), null, 0).extend(indexFile);
+    }
+
+    /**
+     * Indeks bieżącego roku (dir.txt) jest w ciągu roku tylko uzupełniany o kolejne linie. Ta metoda czyta nową wersję
+     * pliku, ale parsuje wyłącznie linie dopisane od czasu utworzenia tego indeksu. Jeśli plik zaczyna się inaczej niż
+     * poprzednio (np. nowy rok) lub jest krótszy, indeks budowany jest od nowa.
+     *
+     * @return nowy indeks zawierający dotychczasowe i dopisane pozycje (ten indeks pozostaje bez zmian)
+     */
+    public TableIndex extend(BufferedReader indexFile) throws IOException {
+        List<String> skippedLines = new ArrayList<String>();
+        String first = null;
+        String line;
+        while (skippedLines.size() < lineCount && (line = indexFile.readLine()) != null) {
+            if (first == null) {
+                first = line;
+            }
+            skippedLines.add(line);
+        }
+        boolean continuation = skippedLines.size() == lineCount && (lineCount == 0 || firstLine.equals(first));
+
+        Map<TableType, Map<String, Entry>> newEntriesByDate = new EnumMap<TableType, Map<String, Entry>>(TableType.class);
+        if (continuation) {
+            for (Map.Entry<TableType, Map<String, Entry>> byType : entriesByDate.entrySet()) {
+                newEntriesByDate.put(byType.getKey(), new HashMap<String, Entry>(byType.getValue()));
+            }
+        }
+        List<Entry> newEntries = new ArrayList<Entry>(continuation ? entries : Collections.<Entry>emptyList());
+        int newLineCount = continuation ? lineCount : 0;
+        String newFirstLine = continuation ? firstLine : null;
+        Iterator<String> reparsed = continuation ? Collections.<String>emptyIterator() : skippedLines.iterator();
+
+        while ((line = reparsed.hasNext() ? reparsed.next() : indexFile.readLine()) != null) {
+            if (newLineCount++ == 0) {
+                newFirstLine = line;
+            }
+            Entry entry = Entry.parse(line);
+            TableType type = entry == null ? null : TableType.fromKod(entry.getTyp());
+            if (type != null) {
+                Map<String, Entry> byDate = newEntriesByDate.get(type);
+                if (byDate == null) {
+                    byDate = new HashMap<String, Entry>();
+                    newEntriesByDate.put(type, byDate);
+                }
+                byDate.put(entry.getDataPublikacji(), entry);
+                newEntries.add(entry);
+            }
+        }
+        return new TableIndex(newEntriesByDate, newEntries, newFirstLine, newLineCount);
+    }
+
+    /**
+     * @param previous wcześniejsza wersja tego samego indeksu
+     * @return pozycje, których nie było w poprzedniej wersji, w kolejności z pliku
+     */
+    public List<Entry> getEntriesAddedSince(TableIndex previous) {
+        boolean continuation = previous.lineCount <= lineCount && previous.entries.size() <= entries.size()
+                && (previous.lineCount == 0 || previous.firstLine.equals(firstLine));
+        return new ArrayList<Entry>(continuation ? entries.subList(previous.entries.size(), entries.size()) : entries);
+    }
+
+    /**
+     * @return wszystkie pozycje indeksu (wszystkich typów) w kolejności z pliku
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return pozycje tabel danego typu w kolejności z pliku
+     */
+    public List<Entry> getEntries(TableType type) {
+        return filter(entries, type);
+    }
+
+    /**
+     * @return ostatnia pozycja tabeli danego typu lub null, jeśli indeks nie zawiera tabel tego typu
+     */
+    public Entry getLastEntry(TableType type) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).getTyp() == type.getKod()) {
+                return entries.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param nbpDate data publikacji w formacie yyMMdd
+     * @return pozycja indeksu dla tabeli C z danego dnia lub null, jeśli tego dnia nie opublikowano tabeli C
+     */
+    public Entry find(String nbpDate) {
+        return find(TableType.C, nbpDate);
+    }
+
+    /**
+     * @param type    typ tabeli
+     * @param nbpDate data publikacji w formacie yyMMdd
+     * @return pozycja indeksu dla tabeli danego typu z danego dnia lub null, jeśli tego dnia jej nie opublikowano
+     */
+    public Entry find(TableType type, String nbpDate) {
+        Map<String, Entry> byDate = entriesByDate.get(type);
+        return byDate == null ? null : byDate.get(nbpDate);
+    }
+
+    /**
+     * @return liczba tabel wszystkich typów
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return pozycje tabel danego typu z listy, w tej samej kolejności
+     */
+    static List<Entry> filter(List<Entry> entries, TableType type) {
+        List<Entry> filtered = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (entry.getTyp() == type.getKod()) {
+                filtered.add(entry);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Pojedyncza pozycja indeksu - jeden plik z tabelą kursów.
+     */
+    public static class Entry {
+
+        private final String fileName;
+        private final char typ;
+        private final int numer;
+        private final String dataPublikacji;
+
+        private Entry(String fileName, char typ, int numer, String dataPublikacji) {
+            this.fileName = fileName;
+            this.typ = typ;
+            this.numer = numer;
+            this.dataPublikacji = dataPublikacji;
+        }
+
+        /**
+         * @param line linia z pliku dir*.txt, np. c073z070413
+         * @return pozycja indeksu lub null, jeśli linia nie jest nazwą pliku z tabelą
+         */
+        static Entry parse(String line) {
+            String fileName = line.trim();
+            if (!fileName.isEmpty() && fileName.charAt(0) == BYTE_ORDER_MARK) {
+                fileName = fileName.substring(1);
+            }
+            int separator = fileName.indexOf(DATE_SEPARATOR);
+            if (separator < 2 || fileName.length() - separator - 1 != NBP_DATE_LENGTH) {
+                return null;
+            }
+            try {
+                int numer = Integer.parseInt(fileName.substring(1, separator));
+                return new Entry(fileName, fileName.charAt(0), numer, fileName.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getXmlFileName() {
+            return fileName + ".xml";
+        }
+
+        public char getTyp() {
+            return typ;
+        }
+
+        public int getNumer() {
+            return numer;
+        }
+
+        /**
+         * @return data w formacie yyMMdd
+         */
+        public String getDataPublikacji() {
+            return dataPublikacji;
+        }
+
+        public LocalDate getDataPublikacjiAsDate() {
+            return NBPDates.fromNbpDate(dataPublikacji);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package pl.parser.nbp;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Leniwie odczytuje kolejne pliki z tabelami kursów. Naprzód pobieranych i parsowanych jest co najwyżej
+ * 'lookahead' plików - kolejny plik zlecany jest dopiero wtedy, gdy odbiorca odbierze wynik z początku kolejki.
+ * Tempo pobierania wyznacza więc odbiorca, a iterator nie przechowuje tabel, które zostały już zwrócone,
+ * dzięki czemu zużycie pamięci nie zależy od długości okresu.
+ *
+ * Pliki, dla których {@link #read(String)} zwraca null (np. tabela bez szukanej waluty), są pomijane.
+ * Wyniki zwracane są w kolejności nazw plików. Iterator nie jest bezpieczny wątkowo.
+ *
+ * Iterator przerwany przed końcem trzeba zamknąć - {@link #close()} anuluje zlecone już odczyty.
+ *
+ * @param <T> wynik odczytu jednego pliku
+ */
+public abstract class TableIterator<T> implements Iterator<T>, Closeable {
+
+    private final ExecutorService executor;
+    private final List<String> xmlFileNames;
+    private final int lookahead;
+    private final Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+
+    private int nextToSubmit;
+    private T next;
+    private boolean closed;
+
+    TableIterator(ExecutorService executor, List<String> xmlFileNames, int lookahead) {
+        this.executor = executor;
+        this.xmlFileNames = xmlFileNames;
+        this.lookahead = Math.max(1, lookahead);
+    }
+
+    /**
+     * Pobiera i parsuje jeden plik - wywoływane w wątku puli.
+     *
+     * @return wynik lub null, jeśli plik ma zostać pominięty
+     */
+    abstract T read(String xmlFileName) throws Exception;
+
+    /**
+     * @return liczba plików do odczytania (łącznie z odczytanymi)
+     */
+    public int getFileCount() {
+        return xmlFileNames.size();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        fillWindow();
+        while (next == null && !pending.isEmpty()) {
+            Future<T> head = pending.poll();
+            fillWindow();
+            next = await(head);
+        }
+        if (next == null) {
+            closed = true;
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Anuluje odczyty zlecone naprzód. Kolejne wywołania {@link #hasNext()} zwracają false.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        next = null;
+        for (Future<T> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+    }
+
+    /**
+     * @return strumień sekwencyjny oparty na tym iteratorze; zamknięcie strumienia zamyka iterator
+     */
+    public Stream<T> stream() {
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    private void fillWindow() {
+        while (pending.size() < lookahead && nextToSubmit < xmlFileNames.size()) {
+            final String xmlFileName = xmlFileNames.get(nextToSubmit++);
+            pending.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return read(xmlFileName);
+                }
+            }));
+        }
+    }
+
+    private T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Przerwano pobieranie tabel kursów", e);
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Nie udało się pobrać tabeli kursów", cause);
+        }
+    }
+}
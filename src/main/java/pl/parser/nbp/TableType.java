@@ -0,0 +1,50 @@
+package pl.parser.nbp;
+
+/**
+ * Typ tabeli kursów NBP - pierwsza litera nazwy pliku z tabelą (np. a073z070413).
+ */
+public enum TableType {
+
+    /**
+     * Tabela A - kursy średnie walut obcych.
+     */
+    A('a'),
+    /**
+     * Tabela B - kursy średnie walut niewymienialnych, publikowana raz w tygodniu.
+     */
+    B('b'),
+    /**
+     * Tabela C - kursy kupna i sprzedaży.
+     */
+    C('c'),
+    /**
+     * Tabela H - kursy jednostek rozliczeniowych.
+     */
+    H('h');
+
+    private final char kod;
+
+    TableType(char kod) {
+        this.kod = kod;
+    }
+
+    /**
+     * @return litera, od której zaczynają się nazwy plików tabel tego typu
+     */
+    public char getKod() {
+        return kod;
+    }
+
+    /**
+     * @return typ tabeli o podanej literze (wielkość liter bez znaczenia) lub null, jeśli litera nie oznacza żadnego typu
+     */
+    public static TableType fromKod(char kod) {
+        char lower = Character.toLowerCase(kod);
+        for (TableType type : values()) {
+            if (type.kod == lower) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,63 @@
+package pl.parser.nbp;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CrossRateMatrixTest {
+
+    private static final LocalDate DAY = LocalDate.of(2015, 1, 2);
+    private static final double DELTA = 1e-12;
+
+    private static Quotation quotation(String kodWaluty, int przelicznik, long kursKupna, long kursSprzedazy) {
+        return new Quotation(DAY.minusDays(1), DAY, kodWaluty, przelicznik, kursKupna, kursSprzedazy);
+    }
+
+    @Test
+    public void midPriceKeepsHalfUnitOfOddSums() {
+        CrossRateMatrix matrix = new CrossRateMatrix(Arrays.asList("USD", "EUR", "HUF"));
+        List<Quotation> table = Arrays.asList(
+                quotation("USD", 1, 35001, 35002),
+                quotation("EUR", 1, 42000, 42001),
+                quotation("HUF", 100, 13501, 13600));
+        matrix.addTable(table);
+
+        double usd = 3.50015;
+        double eur = 4.20005;
+        double huf = 1.35505 / 100;
+        double[] means = matrix.getMeans();
+        assertEquals(usd / eur, means[matrix.cell(0, 1)], DELTA);
+        assertEquals(eur / usd, means[matrix.cell(1, 0)], DELTA);
+        assertEquals(usd / huf, means[matrix.cell(0, 2)], 1e-9);
+        assertEquals(1d, means[matrix.cell(1, 1)], DELTA);
+    }
+
+    @Test
+    public void midRateIsPreferredAndMissingCurrenciesAreSkipped() {
+        CrossRateMatrix matrix = new CrossRateMatrix(Arrays.asList("USD", "EUR", "CHF"));
+        matrix.addTable(Arrays.asList(
+                new Quotation(DAY.minusDays(1), DAY, "USD", 1, 0, 0, 35000),
+                new Quotation(DAY.minusDays(1), DAY, "EUR", 1, 0, 0, 42000)));
+        matrix.addTable(Arrays.asList(
+                new Quotation(DAY, DAY.plusDays(1), "USD", 1, 0, 0, 36000),
+                new Quotation(DAY, DAY.plusDays(1), "EUR", 1, 0, 0, 42000)));
+
+        int usdEur = matrix.cell(0, 1);
+        assertEquals(2, matrix.getCounts()[usdEur]);
+        assertEquals((3.5 / 4.2 + 3.6 / 4.2) / 2, matrix.getMeans()[usdEur], DELTA);
+        assertEquals(3.5 / 4.2, matrix.getMinima()[usdEur], DELTA);
+        assertEquals(3.6 / 4.2, matrix.getMaxima()[usdEur], DELTA);
+        assertEquals(3.6 / 4.2, matrix.getLast()[usdEur], DELTA);
+        assertEquals(0.05 / 4.2, matrix.getStandardDeviations()[usdEur], DELTA);
+
+        int usdChf = matrix.cell(0, 2);
+        assertEquals(0, matrix.getCounts()[usdChf]);
+        assertTrue(Double.isNaN(matrix.getMeans()[usdChf]));
+        assertTrue(Double.isNaN(matrix.getLast()[usdChf]));
+    }
+}
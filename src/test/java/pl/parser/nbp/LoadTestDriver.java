@@ -0,0 +1,256 @@
+package pl.parser.nbp;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test obciążeniowy całej aplikacji: uruchamia {@link NBPStandInServer}, kontekst Springa skierowany na niego
+ * ('nbp.baseUrl') z pustym katalogiem pamięci podręcznej, a następnie wysyła równolegle zapytania
+ * {@link NBPDataService#getPriceTables} i {@link CurrencyCalculator#calculateResults} o losowe okresy.
+ * Wypisuje przepustowość i percentyle czasów odpowiedzi każdego rodzaju zapytań.
+ *
+ * Przy tym samym ziarnie zapytania i dane są za każdym razem takie same, więc wyniki kolejnych uruchomień
+ * (np. przed zmianą i po niej) można porównywać. Pierwsze zapytania pobierają pliki z serwera, kolejne czytają je
+ * już z pamięci podręcznej - liczba zapytań do serwera wypisywana jest w podsumowaniu.
+ *
+ * Ustawienia (właściwości systemowe, w nawiasie wartość domyślna):
+ * - load.threads (8) - liczba równoległych klientów,
+ * - load.requests (200) - liczba mierzonych zapytań każdego rodzaju,
+ * - load.warmup (0) - liczba zapytań każdego rodzaju przed pomiarem,
+ * - load.mode (both) - tables, statistics lub both,
+ * - load.from, load.to (2013-01-01, 2015-12-31) - okres danych serwera testowego,
+ * - load.maxPeriod (90) - najdłuższy okres zapytania w dniach,
+ * - load.seed (1) - ziarno danych i zapytań,
+ * - standin.latency, standin.jitter (20, 10) - opóźnienie odpowiedzi serwera testowego w ms,
+ * - standin.errorRate (0) - część odpowiedzi serwera kończących się błędem 503.
+ * Pozostałe ustawienia aplikacji (nbp.fetch.concurrency, nbp.http.retries...) podaje się jak zwykle przez -D.
+ *
+ * Program kończy się kodem 1, jeśli któreś zapytanie zakończyło się wyjątkiem.
+ *
+ * Uruchomienie: mvn test-compile exec:java -Dexec.mainClass=pl.parser.nbp.LoadTestDriver -Dexec.classpathScope=test
+ */
+public class LoadTestDriver {
+
+    private enum Operation {
+        TABLES("getPriceTables"), STATISTICS("calculateResults");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("load.threads", 8);
+        int requests = Integer.getInteger("load.requests", 200);
+        int warmup = Integer.getInteger("load.warmup", 0);
+        String mode = System.getProperty("load.mode", "both");
+        LocalDate from = LocalDate.parse(System.getProperty("load.from", "2013-01-01"));
+        LocalDate to = LocalDate.parse(System.getProperty("load.to", "2015-12-31"));
+        int maxPeriod = Integer.getInteger("load.maxPeriod", 90);
+        long seed = Long.getLong("load.seed", 1L);
+
+        List<Operation> operations = new ArrayList<Operation>();
+        if (!"statistics".equals(mode)) {
+            operations.add(Operation.TABLES);
+        }
+        if (!"tables".equals(mode)) {
+            operations.add(Operation.STATISTICS);
+        }
+
+        NBPStandInServer server = new NBPStandInServer(from, to, seed);
+        server.setLatency(Long.getLong("standin.latency", 20L));
+        server.setJitter(Long.getLong("standin.jitter", 10L));
+        server.setErrorRate(Double.parseDouble(System.getProperty("standin.errorRate", "0")));
+        server.start(0);
+
+        Path cacheDirectory = Files.createTempDirectory("nbpcc-load");
+        System.setProperty("nbp.baseUrl", server.getBaseUrl());
+        System.setProperty("nbp.cache.dir", cacheDirectory.toString());
+        System.setProperty("nbp.offline", "false");
+
+        AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext(AppConfig.class);
+        PrintStream out = System.out;
+        boolean failed = false;
+        try {
+            NBPDataService dataService = ctx.getBean(NBPDataService.class);
+            CurrencyCalculator calculator = ctx.getBean(CurrencyCalculator.class);
+            ExecutorService clients = Executors.newFixedThreadPool(threads);
+            Random random = new Random(seed);
+            out.println("Serwer testowy: " + server.getBaseUrl() + ", tabel: " + server.getPublicationDates().size()
+                    + ", klientów: " + threads);
+            //calculateResults wypisuje wyniki na System.out - na czas testu są pomijane
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+            try {
+                for (Operation operation : operations) {
+                    run(clients, operation, queries(server, random, warmup, from, to, maxPeriod), dataService, calculator);
+                    long serverRequests = server.getRequests();
+                    long start = System.nanoTime();
+                    Result result = run(clients, operation, queries(server, random, requests, from, to, maxPeriod), dataService, calculator);
+                    long elapsed = System.nanoTime() - start;
+                    out.println(result.report(operation, elapsed, server.getRequests() - serverRequests));
+                    failed |= result.errors.get() > 0;
+                }
+            } finally {
+                System.setOut(out);
+                clients.shutdownNow();
+            }
+            out.println("Błędy wstrzyknięte przez serwer: " + server.getInjectedErrors());
+            out.println(ctx.getBean(NBPMetrics.class).getSummary());
+        } finally {
+            ctx.close();
+            server.close();
+            deleteDirectory(cacheDirectory);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * @return zapytania (waluta, data początkowa, data końcowa) o losowe okresy z zakresu danych serwera
+     */
+    private static List<String[]> queries(NBPStandInServer server, Random random, int count, LocalDate from, LocalDate to, int maxPeriod) {
+        List<String> kodyWalut = server.getKodyWalut();
+        int days = (int) ChronoUnit.DAYS.between(from, to);
+        List<String[]> queries = new ArrayList<String[]>(count);
+        for (int i = 0; i < count; i++) {
+            LocalDate start = from.plusDays(random.nextInt(days + 1));
+            LocalDate end = start.plusDays(random.nextInt(maxPeriod));
+            if (end.isAfter(to)) {
+                end = to;
+            }
+            queries.add(new String[]{kodyWalut.get(random.nextInt(kodyWalut.size())), start.toString(), end.toString()});
+        }
+        return queries;
+    }
+
+    private static Result run(ExecutorService clients, final Operation operation, List<String[]> queries,
+                              final NBPDataService dataService, final CurrencyCalculator calculator) throws InterruptedException {
+        final Result result = new Result(queries.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(queries.size());
+        for (final String[] query : queries) {
+            futures.add(clients.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    long start = System.nanoTime();
+                    try {
+                        if (operation == Operation.TABLES) {
+                            dataService.getPriceTables(query[1], query[2]);
+                        } else {
+                            calculator.calculateResults(query[0], query[1], query[2]);
+                        }
+                        result.record(System.nanoTime() - start);
+                    } catch (Exception e) {
+                        if (result.errors.getAndIncrement() == 0) {
+                            System.err.println("Zapytanie " + Arrays.toString(query) + " zakończyło się błędem: " + e);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Czasy udanych zapytań jednego przebiegu.
+     */
+    private static class Result {
+
+        private final long[] latencies;
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        Result(int size) {
+            latencies = new long[size];
+        }
+
+        void record(long nanos) {
+            latencies[count.getAndIncrement()] = nanos;
+        }
+
+        String report(Operation operation, long elapsedNanos, long serverRequests) {
+            long[] sorted = Arrays.copyOf(latencies, count.get());
+            Arrays.sort(sorted);
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ROOT, "%s: zapytań %d, błędów %d, czas %.1f s, %.1f zapytań/s, zapytań do serwera %d",
+                    operation.label, sorted.length, errors.get(), elapsedNanos / 1e9,
+                    (sorted.length + errors.get()) / (elapsedNanos / 1e9), serverRequests));
+            if (sorted.length > 0) {
+                report.append("\n  czas odpowiedzi [ms]:");
+                for (double percentile : PERCENTILES) {
+                    report.append(String.format(Locale.ROOT, " p%s %.2f", label(percentile), percentile(sorted, percentile) / 1e6));
+                }
+                report.append(String.format(Locale.ROOT, " max %.2f", sorted[sorted.length - 1] / 1e6));
+            }
+            return report.toString();
+        }
+
+        private static String label(double percentile) {
+            String label = Double.toString(percentile * 100);
+            return label.endsWith(".0") ? label.substring(0, label.length() - 2) : label;
+        }
+
+        /**
+         * @return wartość, od której nie jest większa podana część pomiarów (metoda najbliższej rangi)
+         */
+        private static long percentile(long[] sorted, double percentile) {
+            int rank = (int) Math.ceil(percentile * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
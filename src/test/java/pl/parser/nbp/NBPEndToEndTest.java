@@ -0,0 +1,176 @@
+package pl.parser.nbp;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cała aplikacja (kontekst Springa z {@link AppConfig}) skierowana przez 'nbp.baseUrl' na {@link NBPStandInServer}
+ * z pustym katalogiem pamięci podręcznej. Wyniki {@link CurrencyCalculator#calculateResults} porównywane są
+ * z wartościami policzonymi bezpośrednio z wygenerowanych przez serwer tabel - odczytanych przez JAXB i liczonych
+ * na double, tak jak przed wprowadzeniem {@link RateParser} i {@link StatisticsAccumulator}.
+ */
+public class NBPEndToEndTest {
+
+    private static final LocalDate SERVER_FROM = LocalDate.of(2014, 11, 3);
+    private static final LocalDate SERVER_TO = LocalDate.of(2015, 3, 31);
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyMMdd");
+
+    @ClassRule
+    public static TemporaryFolder cacheFolder = new TemporaryFolder();
+
+    private static NBPStandInServer server;
+    private static AnnotationConfigApplicationContext ctx;
+
+    @BeforeClass
+    public static void startApplication() throws Exception {
+        server = new NBPStandInServer(SERVER_FROM, SERVER_TO, 7L);
+        server.setLatency(0);
+        server.setJitter(0);
+        server.start(0);
+
+        System.setProperty("nbp.baseUrl", server.getBaseUrl());
+        System.setProperty("nbp.cache.dir", cacheFolder.getRoot().getAbsolutePath());
+        System.setProperty("nbp.offline", "false");
+        try {
+            ctx = new AnnotationConfigApplicationContext(AppConfig.class);
+        } finally {
+            System.clearProperty("nbp.baseUrl");
+            System.clearProperty("nbp.cache.dir");
+            System.clearProperty("nbp.offline");
+        }
+    }
+
+    @AfterClass
+    public static void stopApplication() {
+        if (ctx != null) {
+            ctx.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * Wywołuje calculateResults i zwraca wypisane przez nie linie.
+     */
+    private static List<String> calculateResults(String kodWaluty, LocalDate start, LocalDate end) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes, true, "UTF-8"));
+        try {
+            ctx.getBean(CurrencyCalculator.class).calculateResults(kodWaluty, start.toString(), end.toString());
+        } finally {
+            System.setOut(out);
+        }
+        return Arrays.asList(new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\\r?\\n"));
+    }
+
+    /**
+     * Średni kurs kupna i odchylenie standardowe kursu sprzedaży policzone z tabel serwera opublikowanych w okresie.
+     */
+    private static List<String> expectedResults(String kodWaluty, LocalDate start, LocalDate end) throws Exception {
+        Unmarshaller unmarshaller = JAXBContext.newInstance(TabelaKursow.class).createUnmarshaller();
+        List<Double> kursyKupna = new ArrayList<Double>();
+        List<Double> kursySprzedazy = new ArrayList<Double>();
+        for (String fileName : tableFileNames(start, end)) {
+            TabelaKursow tabela = (TabelaKursow) unmarshaller.unmarshal(new ByteArrayInputStream(server.getFile(fileName + ".xml")));
+            for (TabelaKursow.Pozycja pozycja : tabela.getPozycja()) {
+                if (kodWaluty.equals(pozycja.getKodWaluty())) {
+                    kursyKupna.add(Double.valueOf(pozycja.getKursKupna().replaceAll(",", ".")));
+                    kursySprzedazy.add(Double.valueOf(pozycja.getKursSprzedazy().replaceAll(",", ".")));
+                }
+            }
+        }
+        assertTrue("Brak tabel serwera w okresie " + start + " - " + end, !kursyKupna.isEmpty());
+        DecimalFormat df = new DecimalFormat("0.0000");
+        return Arrays.asList(df.format(mean(kursyKupna)), df.format(standardDeviation(kursySprzedazy)));
+    }
+
+    /**
+     * Nazwy tabel typu C z plików indeksu serwera, których data publikacji (z nazwy pliku) mieści się w okresie.
+     */
+    private static List<String> tableFileNames(LocalDate start, LocalDate end) {
+        List<String> fileNames = new ArrayList<String>();
+        for (int year = start.getYear(); year <= end.getYear(); year++) {
+            String index = new String(server.getFile("dir" + year + ".txt"), StandardCharsets.US_ASCII);
+            for (String fileName : index.split("\\r?\\n")) {
+                if (!fileName.startsWith("c")) {
+                    continue;
+                }
+                LocalDate dataPublikacji = LocalDate.parse(fileName.substring(fileName.length() - 6), FILE_DATE);
+                if (!dataPublikacji.isBefore(start) && !dataPublikacji.isAfter(end)) {
+                    fileNames.add(fileName);
+                }
+            }
+        }
+        return fileNames;
+    }
+
+    private static double mean(List<Double> numbers) {
+        double sum = 0d;
+        for (Double number : numbers) {
+            sum += number;
+        }
+        return sum / numbers.size();
+    }
+
+    private static double standardDeviation(List<Double> numbers) {
+        double meanValue = mean(numbers);
+        double sum = 0d;
+        for (Double number : numbers) {
+            double diff = number - meanValue;
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum / numbers.size());
+    }
+
+    private static void assertResults(String kodWaluty, LocalDate start, LocalDate end) throws Exception {
+        assertEquals(kodWaluty + " " + start + " - " + end, expectedResults(kodWaluty, start, end),
+                calculateResults(kodWaluty, start, end));
+    }
+
+    @Test
+    public void resultsMatchGeneratedRates() throws Exception {
+        assertResults("USD", LocalDate.of(2015, 2, 2), LocalDate.of(2015, 2, 27));
+        assertResults("EUR", LocalDate.of(2015, 1, 1), LocalDate.of(2015, 3, 31));
+        //jeden dzień publikacji: odchylenie standardowe równe zero
+        assertResults("CHF", LocalDate.of(2015, 3, 10), LocalDate.of(2015, 3, 10));
+    }
+
+    @Test
+    public void periodSpanningYearsReadsBothIndexes() throws Exception {
+        assertResults("USD", LocalDate.of(2014, 12, 15), LocalDate.of(2015, 1, 20));
+        assertResults("GBP", SERVER_FROM, SERVER_TO);
+    }
+
+    @Test
+    public void cachedTablesGiveSameResults() throws Exception {
+        LocalDate start = LocalDate.of(2014, 11, 10);
+        LocalDate end = LocalDate.of(2014, 12, 5);
+        List<String> first = calculateResults("EUR", start, end);
+        long requests = server.getRequests();
+        assertEquals(first, calculateResults("EUR", start, end));
+        assertEquals(expectedResults("EUR", start, end), first);
+        assertEquals("Powtórzone zapytanie nie powinno pobierać tabel z serwera", requests, server.getRequests());
+    }
+}
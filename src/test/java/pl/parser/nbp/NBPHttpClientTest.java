@@ -0,0 +1,201 @@
+package pl.parser.nbp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Ponowienia, zapytania zapasowe i zgłaszanie nieudanych pobrań przez {@link NBPHttpClient}, sprawdzane na
+ * {@link NBPStandInServer} odpowiadającym błędami 5xx, 404 lub z opóźnieniem.
+ */
+public class NBPHttpClientTest {
+
+    private static final LocalDate SERVER_FROM = LocalDate.of(2015, 1, 2);
+    private static final LocalDate SERVER_TO = LocalDate.of(2015, 1, 30);
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyMMdd");
+    private static final int RETRIES = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NBPStandInServer server;
+    private AnnotationConfigApplicationContext ctx;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new NBPStandInServer(SERVER_FROM, SERVER_TO, 11L);
+        server.setLatency(0);
+        server.setJitter(0);
+        server.start(0);
+    }
+
+    @After
+    public void stop() {
+        if (ctx != null) {
+            ctx.close();
+        }
+        server.close();
+    }
+
+    /**
+     * Uruchamia kontekst z podanymi klasami, skierowany na serwer testowy, z krótkimi odstępami między ponowieniami.
+     *
+     * @param properties pary nazwa, wartość dodatkowych ustawień
+     */
+    private void startApplication(Class<?>[] classes, String... properties) {
+        List<String> names = new ArrayList<String>(Arrays.asList("nbp.baseUrl", "nbp.cache.dir", "nbp.offline",
+                "nbp.http.retries", "nbp.http.backoff", "nbp.http.maxBackoff"));
+        System.setProperty("nbp.baseUrl", server.getBaseUrl());
+        System.setProperty("nbp.cache.dir", folder.getRoot().toPath().resolve("cache").toString());
+        System.setProperty("nbp.offline", "false");
+        System.setProperty("nbp.http.retries", String.valueOf(RETRIES));
+        System.setProperty("nbp.http.backoff", "1");
+        System.setProperty("nbp.http.maxBackoff", "5");
+        for (int i = 0; i < properties.length; i += 2) {
+            System.setProperty(properties[i], properties[i + 1]);
+            names.add(properties[i]);
+        }
+        try {
+            ctx = new AnnotationConfigApplicationContext(classes);
+        } finally {
+            for (String name : names) {
+                System.clearProperty(name);
+            }
+        }
+    }
+
+    private void startHttpClient(String... properties) {
+        startApplication(new Class<?>[]{PropertySourcesPlaceholderConfigurer.class, NBPMetrics.class, NBPHttpClient.class}, properties);
+    }
+
+    private static String xmlFileName(int numerTabeli, LocalDate dataPublikacji) {
+        return String.format("c%03dz%s.xml", numerTabeli, dataPublikacji.format(FILE_DATE));
+    }
+
+    private String firstFile() {
+        return xmlFileName(1, server.getPublicationDates().get(0));
+    }
+
+    @Test
+    public void retriesTransientErrors() throws IOException {
+        startHttpClient();
+        server.failNextRequests(RETRIES);
+        Path target = folder.getRoot().toPath().resolve("table.xml");
+
+        assertTrue(ctx.getBean(NBPHttpClient.class).download(firstFile(), target, null));
+
+        assertArrayEquals(server.getFile(firstFile()), Files.readAllBytes(target));
+        assertEquals(RETRIES + 1, server.getRequests());
+        assertEquals(RETRIES, server.getInjectedErrors());
+        assertEquals(RETRIES, ctx.getBean(NBPMetrics.class).getRetriedRequests());
+    }
+
+    @Test
+    public void givesUpAfterRetries() throws IOException {
+        startHttpClient();
+        server.setErrorRate(1.0);
+        try {
+            ctx.getBean(NBPHttpClient.class).download(firstFile(), folder.getRoot().toPath().resolve("table.xml"), null);
+            fail("Pobranie powinno się nie udać");
+        } catch (NBPHttpClient.HttpStatusException e) {
+            assertEquals(503, e.getStatus());
+        }
+        assertEquals(RETRIES + 1, server.getRequests());
+        assertEquals(RETRIES, ctx.getBean(NBPMetrics.class).getRetriedRequests());
+    }
+
+    @Test
+    public void doesNotRetryNotFound() throws IOException {
+        startHttpClient();
+        try {
+            ctx.getBean(NBPHttpClient.class).download("c999z150101.xml", folder.getRoot().toPath().resolve("table.xml"), null);
+            fail("Brak pliku powinien zakończyć pobieranie wyjątkiem");
+        } catch (FileNotFoundException e) {
+            //oczekiwany wyjątek
+        }
+        assertEquals(1, server.getRequests());
+        assertEquals(0, ctx.getBean(NBPMetrics.class).getRetriedRequests());
+    }
+
+    @Test
+    public void retriesReadTimeouts() throws IOException {
+        startHttpClient("nbp.http.readTimeout", "100");
+        server.setLatency(1000);
+        try {
+            ctx.getBean(NBPHttpClient.class).download(firstFile(), folder.getRoot().toPath().resolve("table.xml"), null);
+            fail("Pobranie powinno przekroczyć czas odczytu");
+        } catch (SocketTimeoutException e) {
+            //oczekiwany wyjątek
+        }
+        assertEquals(RETRIES + 1, server.getRequests());
+        assertEquals(RETRIES, ctx.getBean(NBPMetrics.class).getRetriedRequests());
+    }
+
+    @Test
+    public void hedgesSlowResponse() throws IOException {
+        startHttpClient("nbp.http.hedge", "true", "nbp.http.hedgeDelay", "50");
+        server.setLatency(300);
+        Path target = folder.getRoot().toPath().resolve("table.xml");
+
+        assertTrue(ctx.getBean(NBPHttpClient.class).download(firstFile(), target, null));
+
+        assertArrayEquals(server.getFile(firstFile()), Files.readAllBytes(target));
+        assertEquals(2, server.getRequests());
+        assertEquals(1, ctx.getBean(NBPMetrics.class).getHedgedRequests());
+        //pliki tymczasowe obu zapytań zostały przeniesione albo usunięte
+        assertFalse(Files.exists(target.resolveSibling("table.xml.1")));
+        assertFalse(Files.exists(target.resolveSibling("table.xml.2")));
+    }
+
+    @Test
+    public void classifiesRetryableErrors() {
+        assertTrue(NBPHttpClient.isRetryable(new NBPHttpClient.HttpStatusException(500, "")));
+        assertTrue(NBPHttpClient.isRetryable(new NBPHttpClient.HttpStatusException(503, "")));
+        assertTrue(NBPHttpClient.isRetryable(new NBPHttpClient.HttpStatusException(429, "")));
+        assertTrue(NBPHttpClient.isRetryable(new SocketTimeoutException()));
+        assertTrue(NBPHttpClient.isRetryable(new IOException("Connection reset")));
+        assertFalse(NBPHttpClient.isRetryable(new NBPHttpClient.HttpStatusException(400, "")));
+        assertFalse(NBPHttpClient.isRetryable(new FileNotFoundException()));
+        assertFalse(NBPHttpClient.isRetryable(new InterruptedIOException()));
+    }
+
+    @Test
+    public void reportsFilesThatCouldNotBeDownloaded() throws Exception {
+        startApplication(new Class<?>[]{AppConfig.class});
+        List<LocalDate> publicationDates = server.getPublicationDates();
+        String missingFile = xmlFileName(3, publicationDates.get(2));
+        String failingFile = xmlFileName(7, publicationDates.get(6));
+        server.setFileStatus(missingFile, 404);
+        server.setFileStatus(failingFile, 500);
+
+        QuotationStatistics statistics = ctx.getBean(NBPDataService.class).getStatistics("USD", SERVER_FROM.toString(), SERVER_TO.toString());
+
+        assertEquals(publicationDates.size() - 2, statistics.getBuy().getCount());
+        assertEquals(new HashSet<String>(Arrays.asList(missingFile, failingFile)), new HashSet<String>(statistics.getFailedFiles()));
+        //plik usunięty z serwera pobierany jest raz, plik zwracający błąd 5xx - z ponowieniami
+        assertEquals(1 + RETRIES + 1, server.getInjectedErrors());
+    }
+}
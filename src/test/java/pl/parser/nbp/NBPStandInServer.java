@@ -0,0 +1,376 @@
+package pl.parser.nbp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lokalny zastępnik serwisu NBP do testów bez dostępu do sieci. Serwuje wygenerowane pliki dir*.txt i c*.xml
+ * pod adresem {@link #getBaseUrl()}, który ustawia się aplikacji jako 'nbp.baseUrl'.
+ *
+ * Dane generowane są przy tworzeniu serwera: tabela C na każdy dzień roboczy okresu, kursy kilkunastu walut
+ * w postaci błądzenia losowego. Ten sam okres i to samo ziarno dają zawsze te same pliki, więc wyniki zapytań
+ * można porównywać między uruchomieniami.
+ *
+ * Każda odpowiedź może zostać opóźniona ({@link #setLatency}, {@link #setJitter}), a część zapytań może kończyć się
+ * błędem ({@link #setErrorRate}, {@link #setErrorStatus}) - do sprawdzania ponowień i zachowania przy wolnym serwerze.
+ * Błędy można też wywołać w przewidywalny sposób: dla kolejnych zapytań ({@link #failNextRequests}) albo dla
+ * wybranego pliku ({@link #setFileStatus}).
+ */
+public class NBPStandInServer implements Closeable {
+
+    static final String BASE_PATH = "/kursy/xml/";
+
+    private static final Charset XML_CHARSET = Charset.forName("ISO-8859-2");
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyMMdd");
+
+    /**
+     * nazwa waluty, kod, przelicznik, kurs początkowy
+     */
+    private static final Object[][] CURRENCIES = {
+            {"dolar amerykański", "USD", 1, 3.50},
+            {"dolar australijski", "AUD", 1, 2.75},
+            {"dolar kanadyjski", "CAD", 1, 2.90},
+            {"euro", "EUR", 1, 4.20},
+            {"forint (Węgry)", "HUF", 100, 1.35},
+            {"frank szwajcarski", "CHF", 1, 3.90},
+            {"funt szterling", "GBP", 1, 5.50},
+            {"jen (Japonia)", "JPY", 100, 3.20},
+            {"korona czeska", "CZK", 1, 0.16},
+            {"korona duńska", "DKK", 1, 0.56},
+            {"korona norweska", "NOK", 1, 0.45},
+            {"korona szwedzka", "SEK", 1, 0.42},
+            {"SDR (MFW)", "XDR", 1, 5.20}
+    };
+    private static final double SPREAD = 0.02;
+    private static final double DAILY_VOLATILITY = 0.004;
+
+    private final Map<String, byte[]> files;
+    private final List<LocalDate> publicationDates;
+
+    private volatile long latency;
+    private volatile long jitter;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+
+    private final AtomicInteger pendingErrors = new AtomicInteger();
+    private final Map<String, Integer> fileStatuses = new ConcurrentHashMap<String, Integer>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param startDate pierwszy dzień okresu, dla którego generowane są tabele
+     * @param endDate   ostatni dzień tego okresu
+     * @param seed      ziarno generatora kursów
+     */
+    public NBPStandInServer(LocalDate startDate, LocalDate endDate, long seed) {
+        if (startDate.isAfter(endDate)) {
+            throw new IllegalArgumentException("Data początkowa " + startDate + " jest późniejsza niż końcowa " + endDate);
+        }
+        Map<String, byte[]> files = new HashMap<String, byte[]>();
+        List<LocalDate> publicationDates = new ArrayList<LocalDate>();
+        Map<Integer, StringBuilder> indexes = new LinkedHashMap<Integer, StringBuilder>();
+        for (int year = startDate.getYear(); year <= endDate.getYear(); year++) {
+            indexes.put(year, new StringBuilder());
+        }
+
+        Random random = new Random(seed);
+        double[] rates = new double[CURRENCIES.length];
+        for (int i = 0; i < CURRENCIES.length; i++) {
+            rates[i] = (Double) CURRENCIES[i][3];
+        }
+        LocalDate dataNotowania = previousWorkingDay(startDate);
+        int numerTabeli = 0;
+        for (LocalDate day = startDate; !day.isAfter(endDate); day = day.plusDays(1)) {
+            if (!isWorkingDay(day)) {
+                continue;
+            }
+            //tabele numerowane są od początku w każdym roku
+            numerTabeli = day.getYear() == dataNotowania.getYear() ? numerTabeli + 1 : 1;
+            for (int i = 0; i < rates.length; i++) {
+                rates[i] *= 1 + DAILY_VOLATILITY * random.nextGaussian();
+            }
+            String fileName = String.format(Locale.ROOT, "c%03dz%s", numerTabeli, day.format(FILE_DATE));
+            files.put(fileName + ".xml", table(fileName, numerTabeli, dataNotowania, day, rates));
+            indexes.get(day.getYear()).append(fileName).append("\r\n");
+            publicationDates.add(day);
+            dataNotowania = day;
+        }
+
+        int currentYear = LocalDate.now().getYear();
+        for (Map.Entry<Integer, StringBuilder> index : indexes.entrySet()) {
+            String fileName = index.getKey() == currentYear ? "dir.txt" : "dir" + index.getKey() + ".txt";
+            files.put(fileName, index.getValue().toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        this.files = Collections.unmodifiableMap(files);
+        this.publicationDates = Collections.unmodifiableList(publicationDates);
+    }
+
+    private static boolean isWorkingDay(LocalDate day) {
+        return day.getDayOfWeek() != DayOfWeek.SATURDAY && day.getDayOfWeek() != DayOfWeek.SUNDAY;
+    }
+
+    private static LocalDate previousWorkingDay(LocalDate day) {
+        LocalDate previous = day.minusDays(1);
+        while (!isWorkingDay(previous)) {
+            previous = previous.minusDays(1);
+        }
+        return previous;
+    }
+
+    private static byte[] table(String uid, int numerTabeli, LocalDate dataNotowania, LocalDate dataPublikacji, double[] rates) {
+        StringBuilder xml = new StringBuilder(4096);
+        xml.append("<?xml version=\"1.0\" encoding=\"ISO-8859-2\"?>\r\n")
+                .append("<tabela_kursow typ=\"C\" uid=\"").append(uid).append("\">\r\n")
+                .append("   <numer_tabeli>").append(String.format(Locale.ROOT, "%03d", numerTabeli))
+                .append("/C/NBP/").append(dataPublikacji.getYear()).append("</numer_tabeli>\r\n")
+                .append("   <data_notowania>").append(dataNotowania).append("</data_notowania>\r\n")
+                .append("   <data_publikacji>").append(dataPublikacji).append("</data_publikacji>\r\n");
+        for (int i = 0; i < CURRENCIES.length; i++) {
+            double kursKupna = rates[i] * (1 - SPREAD / 2);
+            double kursSprzedazy = rates[i] * (1 + SPREAD / 2);
+            xml.append("   <pozycja>\r\n")
+                    .append("      <nazwa_waluty>").append(CURRENCIES[i][0]).append("</nazwa_waluty>\r\n")
+                    .append("      <przelicznik>").append(CURRENCIES[i][2]).append("</przelicznik>\r\n")
+                    .append("      <kod_waluty>").append(CURRENCIES[i][1]).append("</kod_waluty>\r\n")
+                    .append("      <kurs_kupna>").append(rate(kursKupna)).append("</kurs_kupna>\r\n")
+                    .append("      <kurs_sprzedazy>").append(rate(kursSprzedazy)).append("</kurs_sprzedazy>\r\n")
+                    .append("   </pozycja>\r\n");
+        }
+        xml.append("</tabela_kursow>\r\n");
+        return xml.toString().getBytes(XML_CHARSET);
+    }
+
+    /**
+     * @return kurs w formacie NBP - cztery miejsca po przecinku dziesiętnym
+     */
+    private static String rate(double value) {
+        return String.format(Locale.ROOT, "%.4f", value).replace('.', ',');
+    }
+
+    /**
+     * Uruchamia serwer na adresie lokalnym.
+     *
+     * @param port numer portu; 0 - dowolny wolny port
+     */
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Serwer już działa");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        //pula bez ograniczeń - opóźnione odpowiedzi nie mogą blokować pozostałych zapytań
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "nbp-stand-in-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(BASE_PATH, new FileHandler());
+        server.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return adres do ustawienia jako 'nbp.baseUrl'
+     */
+    public synchronized String getBaseUrl() {
+        if (server == null) {
+            throw new IllegalStateException("Serwer nie działa");
+        }
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    /**
+     * @param latency stałe opóźnienie każdej odpowiedzi (ms)
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param jitter największe losowe odchylenie od stałego opóźnienia w górę lub w dół (ms)
+     */
+    public void setJitter(long jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param errorRate część zapytań (0..1), na które serwer odpowiada błędem zamiast pliku
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param errorStatus kod odpowiedzi dla wstrzykiwanych błędów (domyślnie 503)
+     */
+    public void setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * @param count liczba kolejnych zapytań, na które serwer odpowie błędem {@link #setErrorStatus}
+     */
+    public void failNextRequests(int count) {
+        pendingErrors.set(count);
+    }
+
+    /**
+     * @param fileName nazwa pliku, o który zapytania mają zawsze kończyć się błędem (także plik wymieniony w indeksie)
+     * @param status   kod odpowiedzi dla tego pliku, np. 404 - plik usunięty z serwera; null - plik serwowany normalnie
+     */
+    public void setFileStatus(String fileName, Integer status) {
+        if (status == null) {
+            fileStatuses.remove(fileName);
+        } else {
+            fileStatuses.put(fileName, status);
+        }
+    }
+
+    /**
+     * @return dni publikacji wygenerowanych tabel, w kolejności
+     */
+    public List<LocalDate> getPublicationDates() {
+        return publicationDates;
+    }
+
+    /**
+     * @return kody walut występujących w tabelach
+     */
+    public List<String> getKodyWalut() {
+        List<String> kodyWalut = new ArrayList<String>(CURRENCIES.length);
+        for (Object[] currency : CURRENCIES) {
+            kodyWalut.add((String) currency[1]);
+        }
+        return kodyWalut;
+    }
+
+    /**
+     * @return zawartość pliku serwowanego pod podaną nazwą lub null
+     */
+    public byte[] getFile(String fileName) {
+        return files.get(fileName);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    private long delay() {
+        long delay = latency;
+        if (jitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+        }
+        return Math.max(0, delay);
+    }
+
+    private boolean takePendingError() {
+        for (;;) {
+            int pending = pendingErrors.get();
+            if (pending <= 0) {
+                return false;
+            }
+            if (pendingErrors.compareAndSet(pending, pending - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private class FileHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                requests.incrementAndGet();
+                long delay = delay();
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                String fileName = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+                Integer fileStatus = fileStatuses.get(fileName);
+                if (fileStatus != null) {
+                    injectedErrors.incrementAndGet();
+                    respond(exchange, fileStatus, ("Błąd pliku " + fileName + " wstrzyknięty przez serwer testowy").getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                if (takePendingError()
+                        || errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    injectedErrors.incrementAndGet();
+                    respond(exchange, errorStatus, "Błąd wstrzyknięty przez serwer testowy".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                byte[] content = files.get(fileName);
+                if (content == null) {
+                    respond(exchange, 404, ("Brak pliku " + fileName).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    respond(exchange, 200, content);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream os = exchange.getResponseBody();
+            try {
+                os.write(body);
+            } finally {
+                os.close();
+            }
+        }
+    }
+}
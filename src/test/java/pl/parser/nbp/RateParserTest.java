@@ -0,0 +1,113 @@
+package pl.parser.nbp;
+
+import org.junit.Test;
+
+import javax.xml.bind.JAXBContext;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Parsowanie kursów do liczb stałoprzecinkowych porównywane z dotychczasowym parsowaniem tekstu z JAXB
+ * przez BigDecimal.
+ */
+public class RateParserTest {
+
+    static final String TABLE_FILE = "/fixtures/c001z150102.xml";
+
+    @Test
+    public void parsesCommaAndDotDecimal() {
+        assertEquals(41234, RateParser.parse("4,1234"));
+        assertEquals(41234, RateParser.parse("4.1234"));
+        assertEquals(1, RateParser.parse("0,0001"));
+        assertEquals(123456789, RateParser.parse("12345,6789"));
+    }
+
+    @Test
+    public void padsMissingFractionDigits() {
+        assertEquals(41200, RateParser.parse("4,12"));
+        assertEquals(40000, RateParser.parse("4"));
+        assertEquals(40000, RateParser.parse("4,"));
+        assertEquals(5000, RateParser.parse(",5"));
+        assertEquals(-5000, RateParser.parse("-0,5"));
+    }
+
+    @Test
+    public void skipsSurroundingWhitespace() {
+        assertEquals(41234, RateParser.parse(" 4,1234"));
+        assertEquals(41234, RateParser.parse("4,1234 \r\n"));
+        assertEquals(41234, RateParser.parse("\t 4,1234\n   "));
+    }
+
+    @Test
+    public void parsesPartOfCharArray() {
+        char[] chars = "<kurs_kupna>3,1182</kurs_kupna>".toCharArray();
+        assertEquals(31182, RateParser.parse(chars, 12, 6));
+    }
+
+    @Test
+    public void rejectsInvalidRates() {
+        String[] invalid = {"4,12345", "4,123456789", "", "   ", "4,12,3", "4.1,2", "abc", "4,1a", "4 1", "-", ",", "--1"};
+        for (String rate : invalid) {
+            try {
+                RateParser.parse(rate);
+                fail("Kurs \"" + rate + "\" powinien zostać odrzucony");
+            } catch (NumberFormatException e) {
+                //oczekiwany wyjątek
+            }
+        }
+    }
+
+    @Test
+    public void rejectsOverflow() {
+        try {
+            RateParser.parse("99999999999999999,9999");
+            fail("Przekroczenie zakresu powinno zostać zgłoszone");
+        } catch (ArithmeticException e) {
+            //oczekiwany wyjątek
+        }
+    }
+
+    @Test
+    public void matchesJaxbAndBigDecimalForWholeTable() throws Exception {
+        TabelaKursow tabela = unmarshal(TABLE_FILE);
+        List<Quotation> quotations = readAll(TABLE_FILE);
+        assertEquals(tabela.getPozycja().size(), quotations.size());
+        for (int i = 0; i < quotations.size(); i++) {
+            TabelaKursow.Pozycja pozycja = tabela.getPozycja().get(i);
+            Quotation quotation = quotations.get(i);
+            assertEquals(pozycja.getKodWaluty(), quotation.getKodWaluty());
+            assertEquals(pozycja.getKodWaluty(), toFixedPoint(pozycja.getKursKupna()), quotation.getKursKupna());
+            assertEquals(pozycja.getKodWaluty(), toFixedPoint(pozycja.getKursSprzedazy()), quotation.getKursSprzedazy());
+            assertEquals(pozycja.getKodWaluty(), pozycja.getPrzelicznik(), quotation.getPrzelicznik());
+        }
+    }
+
+    /**
+     * Kurs z tekstu odczytanego przez JAXB - tak jak przed wprowadzeniem {@link RateParser}.
+     */
+    static long toFixedPoint(String rate) {
+        return new BigDecimal(rate.trim().replace(',', '.')).movePointRight(4).longValueExact();
+    }
+
+    static TabelaKursow unmarshal(String resource) throws Exception {
+        InputStream is = RateParserTest.class.getResourceAsStream(resource);
+        try {
+            return (TabelaKursow) JAXBContext.newInstance(TabelaKursow.class).createUnmarshaller().unmarshal(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    static List<Quotation> readAll(String resource) throws Exception {
+        InputStream is = RateParserTest.class.getResourceAsStream(resource);
+        try {
+            return new QuotationReader().readAll(is);
+        } finally {
+            is.close();
+        }
+    }
+}
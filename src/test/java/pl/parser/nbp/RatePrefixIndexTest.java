@@ -0,0 +1,137 @@
+package pl.parser.nbp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Statystyki z indeksu sum prefiksowych porównywane z bezpośrednim przejściem po notowaniach szeregu.
+ */
+public class RatePrefixIndexTest {
+
+    private static final double DELTA = 1e-12;
+
+    private ArrayRateSeries series;
+    private int firstDay;
+    private int lastDay;
+
+    @Before
+    public void setUp() {
+        series = new ArrayRateSeries("USD");
+        firstDay = (int) LocalDate.of(2013, 1, 2).toEpochDay();
+        lastDay = append(series, firstDay, 300, new Random(7));
+    }
+
+    /**
+     * Dopisuje notowania z dni roboczych (z lukami na weekendy) zaczynając od podanego dnia.
+     *
+     * @return dzień ostatniego dopisanego notowania
+     */
+    private static int append(ArrayRateSeries series, int fromEpochDay, int count, Random random) {
+        int day = fromEpochDay;
+        int last = day;
+        for (int i = 0; i < count; day++) {
+            if (LocalDate.ofEpochDay(day).getDayOfWeek().getValue() >= 6) {
+                continue;
+            }
+            long kupno = 30000 + random.nextInt(5000);
+            series.append(day, kupno, kupno + random.nextInt(800));
+            last = day;
+            i++;
+        }
+        return last;
+    }
+
+    private static QuotationStatistics bruteForce(RateSeries series, int fromEpochDay, int toEpochDay) {
+        QuotationStatistics statistics = new QuotationStatistics();
+        for (int i = 0; i < series.size(); i++) {
+            int day = series.getEpochDay(i);
+            if (day >= fromEpochDay && day <= toEpochDay) {
+                statistics.getBuy().add(series.getKursKupna(i));
+                statistics.getSell().add(series.getKursSprzedazy(i));
+            }
+        }
+        return statistics;
+    }
+
+    private void assertMatchesBruteForce(RatePrefixIndex index, int fromEpochDay, int toEpochDay) {
+        QuotationStatistics expected = bruteForce(series, fromEpochDay, toEpochDay);
+        QuotationStatistics actual = index.query(fromEpochDay, toEpochDay);
+        String range = LocalDate.ofEpochDay(fromEpochDay) + " - " + LocalDate.ofEpochDay(toEpochDay);
+        assertAccumulatorEquals(range + " (kupno)", expected.getBuy(), actual.getBuy());
+        assertAccumulatorEquals(range + " (sprzedaż)", expected.getSell(), actual.getSell());
+    }
+
+    private static void assertAccumulatorEquals(String message, StatisticsAccumulator expected, StatisticsAccumulator actual) {
+        assertEquals(message, expected.getCount(), actual.getCount());
+        assertEquals(message, expected.getMean(), actual.getMean(), DELTA);
+        assertEquals(message, expected.getStandardDeviation(), actual.getStandardDeviation(), DELTA);
+    }
+
+    @Test
+    public void rangesAtSeriesEdges() {
+        RatePrefixIndex index = new RatePrefixIndex(series);
+        assertMatchesBruteForce(index, firstDay, lastDay);
+        assertMatchesBruteForce(index, firstDay - 10, lastDay + 10);
+        assertMatchesBruteForce(index, firstDay, firstDay);
+        assertMatchesBruteForce(index, lastDay, lastDay);
+        assertMatchesBruteForce(index, firstDay - 5, firstDay + 20);
+        assertMatchesBruteForce(index, lastDay - 20, lastDay + 5);
+        assertMatchesBruteForce(index, firstDay + 1, lastDay - 1);
+        assertEquals(series.size(), index.query(Integer.MIN_VALUE, Integer.MAX_VALUE).getBuy().getCount());
+    }
+
+    @Test
+    public void randomRanges() {
+        RatePrefixIndex index = new RatePrefixIndex(series);
+        Random random = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            int from = firstDay - 20 + random.nextInt(lastDay - firstDay + 40);
+            assertMatchesBruteForce(index, from, from + random.nextInt(120));
+        }
+    }
+
+    @Test
+    public void emptyRanges() {
+        RatePrefixIndex index = new RatePrefixIndex(series);
+        assertMatchesBruteForce(index, firstDay - 30, firstDay - 1);
+        assertMatchesBruteForce(index, lastDay + 1, lastDay + 30);
+
+        //sobota i niedziela - luka w środku szeregu
+        int saturday = firstDay;
+        while (LocalDate.ofEpochDay(saturday).getDayOfWeek().getValue() != 6) {
+            saturday++;
+        }
+        assertMatchesBruteForce(index, saturday, saturday + 1);
+        assertEquals(0, index.query(saturday, saturday + 1).getBuy().getCount());
+        assertEquals(0, index.query(lastDay + 1, lastDay + 30).getSell().getCount());
+
+        RatePrefixIndex emptyIndex = new RatePrefixIndex(new ArrayRateSeries("EUR"));
+        assertEquals(0, emptyIndex.query(firstDay, lastDay).getBuy().getCount());
+    }
+
+    @Test
+    public void rangesAfterExtend() {
+        RatePrefixIndex index = new RatePrefixIndex(series);
+        int oldLastDay = lastDay;
+        assertMatchesBruteForce(index, firstDay, oldLastDay + 30);
+
+        lastDay = append(series, oldLastDay + 1, 400, new Random(13));
+        index.extend();
+        assertMatchesBruteForce(index, firstDay, lastDay);
+        assertMatchesBruteForce(index, oldLastDay, oldLastDay + 1);
+        assertMatchesBruteForce(index, oldLastDay - 10, oldLastDay + 10);
+        assertMatchesBruteForce(index, oldLastDay + 1, lastDay);
+        assertMatchesBruteForce(index, lastDay, lastDay + 1);
+
+        //query() samo dolicza notowania dopisane bez wywołania extend()
+        int previousLastDay = lastDay;
+        lastDay = append(series, previousLastDay + 1, 5, new Random(17));
+        assertMatchesBruteForce(index, previousLastDay - 3, lastDay);
+        assertMatchesBruteForce(index, firstDay, lastDay);
+    }
+}
@@ -0,0 +1,135 @@
+package pl.parser.nbp;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Zapytania o przedział już wczytany do {@link RateStore} wykonywane w czasie, gdy inne zapytanie wczytuje magazyn
+ * od nowa (okres wcześniejszy niż wczytany) z wolno odpowiadającego {@link NBPStandInServer}.
+ */
+public class RateQueryServiceTest {
+
+    private static final LocalDate SERVER_FROM = LocalDate.of(2014, 10, 1);
+    private static final LocalDate SERVER_TO = LocalDate.of(2015, 3, 31);
+
+    private static final String LOADED_FROM = "2015-03-02";
+    private static final String LOADED_TO = "2015-03-31";
+    private static final String EARLIER_FROM = "2014-10-01";
+    private static final String EARLIER_TO = "2014-10-31";
+
+    @ClassRule
+    public static TemporaryFolder cacheFolder = new TemporaryFolder();
+
+    private static NBPStandInServer server;
+    private static AnnotationConfigApplicationContext ctx;
+
+    @BeforeClass
+    public static void startApplication() throws Exception {
+        server = new NBPStandInServer(SERVER_FROM, SERVER_TO, 3L);
+        server.setLatency(5);
+        server.setJitter(0);
+        server.start(0);
+
+        System.setProperty("nbp.baseUrl", server.getBaseUrl());
+        System.setProperty("nbp.cache.dir", cacheFolder.getRoot().getAbsolutePath());
+        System.setProperty("nbp.offline", "false");
+        try {
+            ctx = new AnnotationConfigApplicationContext(AppConfig.class);
+        } finally {
+            System.clearProperty("nbp.baseUrl");
+            System.clearProperty("nbp.cache.dir");
+            System.clearProperty("nbp.offline");
+        }
+    }
+
+    @AfterClass
+    public static void stopApplication() {
+        if (ctx != null) {
+            ctx.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void queriesDuringReloadSeeCompleteDataWithoutWaiting() throws Exception {
+        final RateQueryService queryService = ctx.getBean(RateQueryService.class);
+        final QuotationStatistics expected = queryService.getStatistics("USD", LOADED_FROM, LOADED_TO);
+        assertEquals(publications(LOADED_FROM, LOADED_TO), expected.getBuy().getCount());
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            //okres wcześniejszy niż wczytany - magazyn wczytywany jest od nowa, od października 2014 do marca 2015
+            final Future<QuotationStatistics> reload = executor.submit(new Callable<QuotationStatistics>() {
+                @Override
+                public QuotationStatistics call() throws Exception {
+                    return queryService.getStatistics("USD", EARLIER_FROM, EARLIER_TO);
+                }
+            });
+
+            List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int completedDuringReload = 0;
+                        while (!reload.isDone()) {
+                            QuotationStatistics actual = queryService.getStatistics("USD", LOADED_FROM, LOADED_TO);
+                            assertStatisticsEqual(expected, actual);
+                            if (!reload.isDone()) {
+                                completedDuringReload++;
+                            }
+                        }
+                        return completedDuringReload;
+                    }
+                }));
+            }
+
+            assertEquals(publications(EARLIER_FROM, EARLIER_TO), reload.get(60, TimeUnit.SECONDS).getBuy().getCount());
+            int completedDuringReload = 0;
+            for (Future<Integer> reader : readers) {
+                completedDuringReload += reader.get(60, TimeUnit.SECONDS);
+            }
+            assertTrue("Zapytania o wczytany przedział czekały na wczytywanie magazynu", completedDuringReload > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        RateStore rateStore = ctx.getBean(RateStore.class);
+        assertTrue(rateStore.isLoaded((int) LocalDate.parse(EARLIER_FROM).toEpochDay(), (int) LocalDate.parse(LOADED_TO).toEpochDay()));
+        assertStatisticsEqual(expected, queryService.getStatistics("USD", LOADED_FROM, LOADED_TO));
+    }
+
+    private static int publications(String from, String to) {
+        int count = 0;
+        for (LocalDate day : server.getPublicationDates()) {
+            if (!day.isBefore(LocalDate.parse(from)) && !day.isAfter(LocalDate.parse(to))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertStatisticsEqual(QuotationStatistics expected, QuotationStatistics actual) {
+        assertEquals(expected.getBuy().getCount(), actual.getBuy().getCount());
+        assertEquals(expected.getBuy().getMean(), actual.getBuy().getMean(), 0d);
+        assertEquals(expected.getSell().getStandardDeviation(), actual.getSell().getStandardDeviation(), 0d);
+    }
+}
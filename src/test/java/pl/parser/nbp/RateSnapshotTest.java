@@ -0,0 +1,162 @@
+package pl.parser.nbp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateSnapshotTest {
+
+    private static final int FROM = (int) LocalDate.of(2014, 1, 1).toEpochDay();
+    private static final int TO = (int) LocalDate.of(2015, 12, 31).toEpochDay();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ArrayRateSeries series(String kodWaluty, int size, long base) {
+        ArrayRateSeries series = new ArrayRateSeries(kodWaluty);
+        for (int i = 0; i < size; i++) {
+            series.append(FROM + i, base + i * 7, base + i * 7 + 250);
+        }
+        return series;
+    }
+
+    private static List<RateSeries> allSeries() {
+        return Arrays.<RateSeries>asList(series("USD", 500, 35000), series("EUR", 3, 42000), series("XDR", 0, 0),
+                series("HUF", 1, 13500));
+    }
+
+    private Path writeSnapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("rates.snapshot");
+        RateSnapshot.write(allSeries(), FROM, TO, file);
+        return file;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        long before = System.currentTimeMillis();
+        RateSnapshot snapshot = RateSnapshot.open(writeSnapshot());
+
+        assertEquals(FROM, snapshot.getLoadedFromEpochDay());
+        assertEquals(TO, snapshot.getLoadedToEpochDay());
+        assertTrue(snapshot.getCreatedMillis() >= before && snapshot.getCreatedMillis() <= System.currentTimeMillis());
+        List<RateSeries> expected = allSeries();
+        Map<String, RateSeries> actual = snapshot.getSeries();
+        assertEquals(expected.size(), actual.size());
+        for (RateSeries series : expected) {
+            assertSeriesEquals(series, actual.get(series.getKodWaluty()));
+        }
+    }
+
+    private static void assertSeriesEquals(RateSeries expected, RateSeries actual) {
+        assertEquals(expected.getKodWaluty(), actual.getKodWaluty());
+        assertEquals(expected.getKodWaluty(), expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getEpochDay(i), actual.getEpochDay(i));
+            assertEquals(expected.getKursKupna(i), actual.getKursKupna(i));
+            assertEquals(expected.getKursSprzedazy(i), actual.getKursSprzedazy(i));
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        Path file = writeSnapshot();
+        long length = Files.size(file);
+        //plik jest dopełniany do 8 bajtów, więc obcięcie 8 bajtów zawsze sięga danych ostatniego szeregu;
+        //dalej: środek szeregów, środek słownika, środek nagłówka, pusty plik
+        for (long truncatedLength : new long[]{length - 8, length / 2, 40, 20, 0}) {
+            Path truncated = folder.getRoot().toPath().resolve("truncated-" + truncatedLength);
+            Files.write(truncated, Arrays.copyOf(Files.readAllBytes(file), (int) truncatedLength));
+            assertRejected(truncated);
+        }
+    }
+
+    @Test
+    public void rejectsWrongMagic() throws IOException {
+        Path file = writeSnapshot();
+        overwriteInt(file, 0, 0x4e425052);
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsWrongVersion() throws IOException {
+        Path file = writeSnapshot();
+        overwriteInt(file, 4, 99);
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsDictionaryPointingOutsideFile() throws IOException {
+        Path file = writeSnapshot();
+        //położenie szeregu pierwszej waluty (nagłówek 32 bajty, kod 8 bajtów, liczba notowań 4 bajty)
+        overwriteInt(file, 32 + 12, Integer.MAX_VALUE - 8);
+        assertRejected(file);
+    }
+
+    private static void overwriteInt(Path file, long position, int value) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+        try {
+            raf.seek(position);
+            raf.writeInt(value);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void assertRejected(Path file) {
+        try {
+            RateSnapshot.open(file);
+            fail("Plik " + file.getFileName() + " powinien zostać odrzucony");
+        } catch (IOException e) {
+            //oczekiwany wyjątek
+        }
+    }
+
+    private static RateStore startRateStore(Path snapshotFile) {
+        System.setProperty("nbp.snapshot.file", snapshotFile.toString());
+        AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext(
+                PropertySourcesPlaceholderConfigurer.class, RateStore.class);
+        try {
+            return ctx.getBean(RateStore.class);
+        } finally {
+            ctx.close();
+            System.clearProperty("nbp.snapshot.file");
+        }
+    }
+
+    @Test
+    public void rateStoreMapsSnapshotAtStartup() throws IOException {
+        RateStore store = startRateStore(writeSnapshot());
+        assertTrue(store.isLoaded(FROM, TO));
+        assertEquals(new ArrayList<String>(Arrays.asList("EUR", "HUF", "USD", "XDR")), new ArrayList<String>(store.getKodyWalut()));
+        assertTrue(store.getSeries("USD") instanceof MappedRateSeries);
+        assertSeriesEquals(allSeries().get(0), store.getSeries("USD"));
+        assertEquals(500, store.getPrefixIndex("USD").query(FROM, TO).getBuy().getCount());
+    }
+
+    @Test
+    public void rateStoreStartsEmptyWithCorruptSnapshot() throws IOException {
+        Path file = writeSnapshot();
+        overwriteInt(file, 4, 99);
+        RateStore store = startRateStore(file);
+        assertTrue(store.getKodyWalut().isEmpty());
+        assertNull(store.getSeries("USD"));
+        assertTrue(!store.isLoaded(FROM, FROM));
+    }
+}
@@ -0,0 +1,152 @@
+package pl.parser.nbp;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Każde okno porównywane jest ze statystykami policzonymi od nowa z notowań, które powinny się w nim znaleźć.
+ */
+public class RollingStatisticsTest {
+
+    private static final LocalDate START = LocalDate.of(2015, 1, 2);
+
+    private static List<Quotation> quotations(int count, long seed) {
+        Random random = new Random(seed);
+        List<Quotation> quotations = new ArrayList<Quotation>(count);
+        for (int i = 0; i < count; i++) {
+            long kupno = 35000 + random.nextInt(3000);
+            LocalDate day = START.plusDays(i);
+            quotations.add(new Quotation(day.minusDays(1), day, "USD", 1, kupno, kupno + random.nextInt(700)));
+        }
+        return quotations;
+    }
+
+    /**
+     * Zapisuje przekazane okna: daty graniczne i kopie statystyk.
+     */
+    private static class RecordingListener implements RollingStatistics.Listener {
+
+        final List<LocalDate[]> dates = new ArrayList<LocalDate[]>();
+        final List<StatisticsAccumulator[]> statistics = new ArrayList<StatisticsAccumulator[]>();
+
+        @Override
+        public void window(LocalDate first, LocalDate last, StatisticsAccumulator buy, StatisticsAccumulator sell) {
+            dates.add(new LocalDate[]{first, last});
+            statistics.add(new StatisticsAccumulator[]{copy(buy), copy(sell)});
+        }
+
+        private static StatisticsAccumulator copy(StatisticsAccumulator accumulator) {
+            StatisticsAccumulator copy = new StatisticsAccumulator();
+            copy.merge(accumulator);
+            return copy;
+        }
+    }
+
+    private static void assertWindowsMatchRecomputed(int windowSize, List<Quotation> quotations) {
+        RecordingListener listener = new RecordingListener();
+        RollingStatistics rolling = new RollingStatistics(windowSize, listener);
+        for (Quotation quotation : quotations) {
+            rolling.add(quotation);
+        }
+
+        int expectedWindows = Math.max(0, quotations.size() - windowSize + 1);
+        assertEquals(expectedWindows, rolling.getWindows());
+        assertEquals(expectedWindows, listener.statistics.size());
+        for (int w = 0; w < expectedWindows; w++) {
+            StatisticsAccumulator buy = new StatisticsAccumulator();
+            StatisticsAccumulator sell = new StatisticsAccumulator();
+            for (int i = w; i < w + windowSize; i++) {
+                buy.add(quotations.get(i).getKursKupna());
+                sell.add(quotations.get(i).getKursSprzedazy());
+            }
+            String message = "okno " + w + " (rozmiar " + windowSize + ")";
+            assertEquals(message, quotations.get(w).getDataPublikacji(), listener.dates.get(w)[0]);
+            assertEquals(message, quotations.get(w + windowSize - 1).getDataPublikacji(), listener.dates.get(w)[1]);
+            assertSame(message, buy, listener.statistics.get(w)[0]);
+            assertSame(message, sell, listener.statistics.get(w)[1]);
+        }
+    }
+
+    /**
+     * Sumy są dokładne, więc stan po usunięciach musi być identyczny ze stanem policzonym od nowa.
+     */
+    private static void assertSame(String message, StatisticsAccumulator expected, StatisticsAccumulator actual) {
+        assertEquals(message, expected.getCount(), actual.getCount());
+        assertEquals(message, expected.getMean(), actual.getMean(), 0d);
+        assertEquals(message, expected.getVariance(), actual.getVariance(), 0d);
+    }
+
+    @Test
+    public void windowsMatchRecomputedStatisticsAcrossWraparound() {
+        List<Quotation> quotations = quotations(250, 1);
+        for (int windowSize : new int[]{1, 2, 3, 7, 20, 249, 250}) {
+            assertWindowsMatchRecomputed(windowSize, quotations);
+        }
+    }
+
+    @Test
+    public void noWindowUntilFull() {
+        assertWindowsMatchRecomputed(10, quotations(9, 2));
+        assertWindowsMatchRecomputed(10, quotations(10, 2));
+        assertWindowsMatchRecomputed(10, new ArrayList<Quotation>());
+    }
+
+    @Test
+    public void missingQuotationsAreSkipped() {
+        RecordingListener listener = new RecordingListener();
+        RollingStatistics rolling = new RollingStatistics(3, listener);
+        List<Quotation> quotations = quotations(5, 3);
+        for (Quotation quotation : quotations) {
+            rolling.add(quotation);
+            rolling.add(null);
+        }
+        assertEquals(3, rolling.getWindows());
+        assertEquals(quotations.get(2).getDataPublikacji(), listener.dates.get(2)[0]);
+    }
+
+    @Test
+    public void addThenRemoveRestoresState() {
+        Random random = new Random(4);
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        List<Long> values = new ArrayList<Long>();
+        for (int i = 0; i < 100; i++) {
+            long value = 40000 + random.nextInt(5000);
+            values.add(value);
+            accumulator.add(value);
+        }
+        StatisticsAccumulator reference = new StatisticsAccumulator();
+        reference.merge(accumulator);
+
+        for (int i = 0; i < 50; i++) {
+            long value = 40000 + random.nextInt(5000);
+            accumulator.add(value);
+            accumulator.remove(value);
+        }
+        assertSame("po dodaniu i usunięciu", reference, accumulator);
+
+        for (Long value : values) {
+            accumulator.remove(value);
+        }
+        assertEquals(0, accumulator.getCount());
+        assertEquals(0d, accumulator.getMean(), 0d);
+        assertEquals(0d, accumulator.getVariance(), 0d);
+        try {
+            accumulator.remove(40000);
+            fail("Usunięcie z pustego akumulatora powinno zostać odrzucone");
+        } catch (IllegalStateException e) {
+            //oczekiwany wyjątek
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyWindow() {
+        new RollingStatistics(0, new RecordingListener());
+    }
+}
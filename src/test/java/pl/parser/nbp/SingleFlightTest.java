@@ -0,0 +1,186 @@
+package pl.parser.nbp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final String KEY = "c001z150102.xml";
+
+    private final SingleFlight<String, String> flight = new SingleFlight<String, String>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicReference<Thread> ownerThread = new AtomicReference<Thread>();
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Operacja, która czeka na zwolnienie przez test, a potem zwraca wynik lub rzuca podany wyjątek.
+     */
+    private Callable<String> blockingLoader(final AtomicInteger calls, final String result, final Exception failure) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                ownerThread.set(Thread.currentThread());
+                started.countDown();
+                release.await();
+                if (failure != null) {
+                    throw failure;
+                }
+                return result;
+            }
+        };
+    }
+
+    private Future<String> submit(final Callable<String> loader) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return flight.execute(KEY, loader);
+            }
+        });
+    }
+
+    private static Callable<String> countingLoader(final AtomicInteger calls, final String result) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                calls.incrementAndGet();
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Czeka, aż drugie wywołanie dołączy do operacji w locie (zablokuje się na jej wyniku).
+     */
+    private static void awaitWaiting(AtomicReference<Thread> waiter) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (waiter.get() == null || waiter.get().getState() != Thread.State.WAITING) {
+            if (System.nanoTime() > deadline) {
+                fail("Drugie wywołanie nie czeka na wynik operacji");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private Future<String> submitWaiter(final Callable<String> loader, final AtomicReference<Thread> waiter) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                waiter.set(Thread.currentThread());
+                return flight.execute(KEY, loader);
+            }
+        });
+    }
+
+    @Test
+    public void concurrentCallersShareOneExecution() throws Exception {
+        AtomicInteger ownerCalls = new AtomicInteger();
+        AtomicInteger waiterCalls = new AtomicInteger();
+        AtomicReference<Thread> waiter = new AtomicReference<Thread>();
+        Future<String> owner = submit(blockingLoader(ownerCalls, "tabela", null));
+        started.await();
+        Future<String> second = submitWaiter(countingLoader(waiterCalls, "inna"), waiter);
+        awaitWaiting(waiter);
+        release.countDown();
+
+        assertEquals("tabela", owner.get(5, TimeUnit.SECONDS));
+        assertEquals("tabela", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, ownerCalls.get());
+        assertEquals(0, waiterCalls.get());
+        assertEquals(0, flight.size());
+    }
+
+    @Test
+    public void failureIsSharedWithWaiters() throws Exception {
+        AtomicInteger ownerCalls = new AtomicInteger();
+        AtomicInteger waiterCalls = new AtomicInteger();
+        AtomicReference<Thread> waiter = new AtomicReference<Thread>();
+        Future<String> owner = submit(blockingLoader(ownerCalls, null, new IOException("HTTP 503")));
+        started.await();
+        Future<String> second = submitWaiter(countingLoader(waiterCalls, "inna"), waiter);
+        awaitWaiting(waiter);
+        release.countDown();
+
+        assertFailsWith(IOException.class, owner);
+        assertFailsWith(IOException.class, second);
+        assertEquals(0, waiterCalls.get());
+    }
+
+    @Test
+    public void interruptedOwnerDoesNotFailWaiters() throws Exception {
+        AtomicInteger ownerCalls = new AtomicInteger();
+        AtomicInteger waiterCalls = new AtomicInteger();
+        AtomicReference<Thread> waiter = new AtomicReference<Thread>();
+        Future<String> owner = submit(blockingLoader(ownerCalls, "tabela", null));
+        started.await();
+        Future<String> second = submitWaiter(countingLoader(waiterCalls, "tabela"), waiter);
+        awaitWaiting(waiter);
+
+        //anulowanie zapytania, którego wątek wykonuje wspólną operację
+        owner.cancel(true);
+
+        assertEquals("tabela", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, ownerCalls.get());
+        assertEquals(1, waiterCalls.get());
+        assertEquals(0, flight.size());
+    }
+
+    @Test
+    public void interruptedOwnerGetsItsOwnFailure() throws Exception {
+        final AtomicInteger ownerCalls = new AtomicInteger();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flight.execute(KEY, blockingLoader(ownerCalls, "tabela", null));
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        owner.start();
+        started.await();
+        owner.interrupt();
+        owner.join(5000);
+
+        assertTrue(String.valueOf(failure.get()), failure.get() instanceof InterruptedException);
+    }
+
+    private static void assertFailsWith(Class<? extends Exception> expected, Future<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Oczekiwano wyjątku " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), expected.isInstance(e.getCause()));
+        }
+    }
+}
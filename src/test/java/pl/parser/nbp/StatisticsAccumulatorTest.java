@@ -0,0 +1,115 @@
+package pl.parser.nbp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dokładne statystyki ze stałoprzecinkowych sum porównywane z dotychczasowym liczeniem na double
+ * (dwa przejścia: średnia, potem suma kwadratów odchyleń) dla kursów odczytanych przez JAXB.
+ */
+public class StatisticsAccumulatorTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void knownValues() {
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        accumulator.add(RateParser.parse("3,0000"));
+        accumulator.add(RateParser.parse("3,0002"));
+        accumulator.add(RateParser.parse("3,0004"));
+        assertEquals(3, accumulator.getCount());
+        assertEquals(3.0002, accumulator.getMean(), 1e-12);
+        //odchylenia od średniej: -0,0002, 0, 0,0002
+        assertEquals(8e-8 / 3, accumulator.getVariance(), 1e-18);
+        assertEquals(Math.sqrt(8e-8 / 3), accumulator.getStandardDeviation(), 1e-12);
+    }
+
+    @Test
+    public void emptyAndSingleValue() {
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        assertTrue(accumulator.isEmpty());
+        assertEquals(0d, accumulator.getMean(), 0d);
+        assertEquals(0d, accumulator.getStandardDeviation(), 0d);
+
+        accumulator.add(41234);
+        assertEquals(4.1234, accumulator.getMean(), 1e-12);
+        assertEquals(0d, accumulator.getVariance(), 0d);
+    }
+
+    @Test
+    public void matchesBaselineForKnownTable() throws Exception {
+        TabelaKursow tabela = RateParserTest.unmarshal(RateParserTest.TABLE_FILE);
+        List<Double> kursyKupna = new ArrayList<Double>();
+        List<Double> kursySprzedazy = new ArrayList<Double>();
+        for (TabelaKursow.Pozycja pozycja : tabela.getPozycja()) {
+            kursyKupna.add(Double.valueOf(pozycja.getKursKupna().replaceAll(",", ".")));
+            kursySprzedazy.add(Double.valueOf(pozycja.getKursSprzedazy().replaceAll(",", ".")));
+        }
+
+        QuotationStatistics statistics = new QuotationStatistics();
+        for (Quotation quotation : RateParserTest.readAll(RateParserTest.TABLE_FILE)) {
+            statistics.add(quotation);
+        }
+
+        assertEquals(kursyKupna.size(), statistics.getBuy().getCount());
+        assertEquals(mean(kursyKupna), statistics.getBuy().getMean(), DELTA);
+        assertEquals(standardDeviation(kursyKupna), statistics.getBuy().getStandardDeviation(), DELTA);
+        assertEquals(mean(kursySprzedazy), statistics.getSell().getMean(), DELTA);
+        assertEquals(standardDeviation(kursySprzedazy), statistics.getSell().getStandardDeviation(), DELTA);
+    }
+
+    @Test
+    public void matchesBaselineForLongSeries() {
+        Random random = new Random(3);
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        List<Double> values = new ArrayList<Double>();
+        for (int i = 0; i < 20000; i++) {
+            long rate = 35000 + random.nextInt(2000);
+            accumulator.add(rate);
+            values.add(rate / 10000d);
+        }
+        assertEquals(mean(values), accumulator.getMean(), DELTA);
+        assertEquals(standardDeviation(values), accumulator.getStandardDeviation(), DELTA);
+    }
+
+    @Test
+    public void mergeEqualsSinglePass() {
+        Random random = new Random(5);
+        StatisticsAccumulator all = new StatisticsAccumulator();
+        StatisticsAccumulator first = new StatisticsAccumulator();
+        StatisticsAccumulator second = new StatisticsAccumulator();
+        for (int i = 0; i < 1000; i++) {
+            long rate = 40000 + random.nextInt(3000);
+            all.add(rate);
+            (i % 3 == 0 ? first : second).add(rate);
+        }
+        first.merge(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), 0d);
+        assertEquals(all.getVariance(), first.getVariance(), 0d);
+    }
+
+    private static double mean(List<Double> numbers) {
+        double sum = 0d;
+        for (Double number : numbers) {
+            sum += number;
+        }
+        return sum / numbers.size();
+    }
+
+    private static double standardDeviation(List<Double> numbers) {
+        double meanValue = mean(numbers);
+        double sum = 0d;
+        for (Double number : numbers) {
+            double diff = number - meanValue;
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum / numbers.size());
+    }
+}